@@ -0,0 +1,68 @@
+package com.teiid.firestore.benchmark;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import org.teiid.language.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.teiid.firestore.translator.OfflineFixtures.column;
+
+/**
+ * Commands and documents over the CountriesT table of the offline test fixtures, which the benchmarks
+ * run against the in-memory Firestore.
+ */
+class Fixtures {
+    private Fixtures() {
+    }
+
+    static List<ColumnReference> columns(NamedTable table) {
+        return table.getMetadataObject().getColumns().stream()
+                .map(column -> column(table, column.getName()))
+                .collect(Collectors.toList());
+    }
+
+    static Select selectAll(NamedTable table) {
+        List<DerivedColumn> derivedColumns = columns(table).stream()
+                .map(column -> new DerivedColumn(null, column))
+                .collect(Collectors.toList());
+        return new Select(derivedColumns, false, List.of(table), null, null, null, null);
+    }
+
+    /**
+     * Stores {@code count} countries with a value for every CountriesT column.
+     */
+    static void seedCountries(Firestore firestore, int count) throws Exception {
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < count; i++) {
+            batch.set(firestore.collection("countries").document("country" + i), Map.of(
+                    "name", "Country " + i,
+                    "capital", "Capital " + i,
+                    "area", 1000.0 * i,
+                    "right-side-driving", i % 2 == 0,
+                    "languages", List.of("en", "language " + i),
+                    "Religion", Map.of("No religion", (double) (i % 100)),
+                    "power", Map.of("president", Map.of("name", "President " + i))));
+            if ((i + 1) % 500 == 0) {
+                batch.commit().get();
+                batch = firestore.batch();
+            }
+        }
+        if (count % 500 != 0) batch.commit().get();
+    }
+
+    /**
+     * Bulk insert rows for every CountriesT column, the document id included.
+     */
+    static List<List<?>> countryRows(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new ArrayList<Object>(List.of(
+                        "country" + i, (double) (i % 100), "President " + i, i % 2 == 0,
+                        "Capital " + i, List.of("en", "language " + i), 1000.0 * i, "Country " + i)))
+                .collect(Collectors.toList());
+    }
+}
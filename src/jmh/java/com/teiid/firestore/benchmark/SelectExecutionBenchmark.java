@@ -0,0 +1,79 @@
+package com.teiid.firestore.benchmark;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.translator.FirestoreExecutionFactory;
+import com.teiid.firestore.translator.common.RowMaterializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teiid.language.Select;
+import org.teiid.translator.ResultSetExecution;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.teiid.firestore.benchmark.Fixtures.seedCountries;
+import static com.teiid.firestore.benchmark.Fixtures.selectAll;
+import static com.teiid.firestore.translator.OfflineFixtures.connection;
+import static com.teiid.firestore.translator.OfflineFixtures.countries;
+import static com.teiid.firestore.translator.OfflineFixtures.executionFactory;
+import static com.teiid.firestore.translator.OfflineFixtures.firestore;
+
+/**
+ * Row materialization of a select over every CountriesT column, in isolation and through a whole
+ * execution streaming from the in-memory Firestore.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelectExecutionBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    private FirestoreExecutionFactory executionFactory;
+    private FirestoreConnection connection;
+    private Select select;
+    private RowMaterializer materializer;
+    private List<DocumentSnapshot> snapshots;
+
+    @Setup
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        Firestore firestore = firestore(new InMemoryDocumentStore());
+        seedCountries(firestore, rows);
+        connection = connection(firestore);
+        select = selectAll(countries());
+        materializer = new RowMaterializer(select.getDerivedColumns());
+        snapshots = firestore.collection("countries").get().get().getDocuments().stream()
+                .map(DocumentSnapshot.class::cast)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void materialize(Blackhole blackhole) {
+        for (DocumentSnapshot snapshot : snapshots) {
+            blackhole.consume(materializer.materialize(snapshot));
+        }
+    }
+
+    @Benchmark
+    public void executeAndFetch(Blackhole blackhole) throws Exception {
+        ResultSetExecution execution = executionFactory.createResultSetExecution(select, null, null, connection);
+        execution.execute();
+        for (List<?> row = execution.next(); row != null; row = execution.next()) {
+            blackhole.consume(row);
+        }
+        execution.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executionFactory.stop();
+    }
+}
@@ -0,0 +1,77 @@
+package com.teiid.firestore.benchmark;
+
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.translator.FirestoreExecutionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Expression;
+import org.teiid.language.ExpressionValueSource;
+import org.teiid.language.Insert;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Parameter;
+import org.teiid.translator.UpdateExecution;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.teiid.firestore.benchmark.Fixtures.*;
+import static com.teiid.firestore.translator.OfflineFixtures.connection;
+import static com.teiid.firestore.translator.OfflineFixtures.countries;
+import static com.teiid.firestore.translator.OfflineFixtures.executionFactory;
+import static com.teiid.firestore.translator.OfflineFixtures.firestore;
+
+/**
+ * Bulk insert of CountriesT rows: parameter handling, nested field maps for dotted names such as
+ * {@code power.president.name}, and batching, with commits applied to the in-memory Firestore.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateExecutionBenchmark {
+    @Param({"500", "5000"})
+    private int rows;
+
+    private FirestoreExecutionFactory executionFactory;
+    private FirestoreConnection connection;
+    private NamedTable table;
+    private List<List<?>> parameterValues;
+
+    @Setup
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        connection = connection(firestore(new InMemoryDocumentStore()));
+        table = countries();
+        parameterValues = countryRows(rows);
+    }
+
+    @Benchmark
+    public int[] bulkInsert() throws Exception {
+        List<ColumnReference> columns = columns(table);
+        List<Expression> parameters = IntStream.range(0, columns.size())
+                .mapToObj(index -> {
+                    Parameter parameter = new Parameter();
+                    parameter.setValueIndex(index);
+                    parameter.setType(columns.get(index).getType());
+                    return parameter;
+                })
+                .collect(Collectors.toList());
+        Insert insert = new Insert(table, columns, new ExpressionValueSource(parameters));
+        insert.setParameterValues(parameterValues.iterator());
+        UpdateExecution execution = executionFactory.createUpdateExecution(insert, null, null, connection);
+        execution.execute();
+        int[] counts = execution.getUpdateCounts();
+        execution.close();
+        return counts;
+    }
+
+    @TearDown
+    public void tearDown() {
+        executionFactory.stop();
+    }
+}
@@ -0,0 +1,87 @@
+package com.teiid.firestore.benchmark;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.translator.appenders.WhereProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teiid.language.*;
+import org.teiid.translator.TranslatorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+
+/**
+ * Translation of conditions into Firestore queries and residual parentId filtering of collection groups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WhereProcessorBenchmark {
+    private WhereProcessor whereProcessor;
+    private Query countries;
+    private Condition equality;
+    private Condition conjunction;
+    private WhereProcessor.FilterStep parentIdFilter;
+    private Object[] parentIdLiterals;
+    private List<DocumentSnapshot> cities;
+
+    @Setup
+    public void setUp() throws Exception {
+        whereProcessor = new WhereProcessor();
+        Firestore firestore = firestore(new InMemoryDocumentStore());
+        seedCities(firestore, 100, 10, 1000);
+        countries = firestore.collection("countries");
+        cities = firestore.collectionGroup("cities").get().get().getDocuments().stream()
+                .map(DocumentSnapshot.class::cast)
+                .collect(Collectors.toList());
+
+        NamedTable countriesTable = countries();
+        equality = new Comparison(column(countriesTable, "country_name"), literal("Ukraine"), Comparison.Operator.EQ);
+        List<Expression> capitals = IntStream.range(0, 5).mapToObj(i -> literal("Capital " + i)).collect(Collectors.toList());
+        conjunction = new AndOr(
+                new AndOr(equality, new In(column(countriesTable, "country_capital"), capitals, false), AndOr.Operator.AND),
+                new Like(column(countriesTable, "president_name"), literal("Pres%"), null, false),
+                AndOr.Operator.AND);
+
+        NamedTable citiesTable = cities();
+        List<Expression> parentIds = IntStream.range(0, 40).mapToObj(i -> literal("country" + i)).collect(Collectors.toList());
+        Condition parentIdCondition = new AndOr(
+                new In(column(citiesTable, "parent_id"), parentIds, false),
+                new Comparison(column(citiesTable, "parent_id"), literal("country2"), Comparison.Operator.GE),
+                AndOr.Operator.AND);
+        parentIdFilter = whereProcessor.compileCollectionGroupFilter(parentIdCondition);
+        List<Object> literals = new ArrayList<>();
+        whereProcessor.describe(parentIdCondition, new StringBuilder(), literals);
+        parentIdLiterals = literals.toArray();
+    }
+
+    @Benchmark
+    public Query appendEquality() throws TranslatorException {
+        return whereProcessor.appendWhere(countries, equality);
+    }
+
+    @Benchmark
+    public Query appendConjunction() throws TranslatorException {
+        return whereProcessor.appendWhere(countries, conjunction);
+    }
+
+    @Benchmark
+    public void filterCollectionGroup(Blackhole blackhole) throws TranslatorException {
+        Predicate<DocumentSnapshot> filter = parentIdFilter.bind(parentIdLiterals);
+        for (DocumentSnapshot city : cities) {
+            blackhole.consume(filter.test(city));
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.teiid.firestore.configuration;
 
 import com.google.cloud.firestore.Firestore;
 import com.teiid.firestore.connection.FirestoreConnectionFactory;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.connection.memory.InMemoryFirestore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,4 +16,15 @@ public class DataSources {
     public FirestoreConnectionFactory firestoreConnectionFactory(Firestore firestore) {
         return new FirestoreConnectionFactory(firestore);
     }
+
+    /**
+     * Replaces the GCP client with one served from memory, for offline load tests and latency experiments.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "firestore.in-memory.enabled", havingValue = "true")
+    public Firestore inMemoryFirestore(@Value("${firestore.in-memory.latency-millis:0}") long latencyMillis,
+                                       @Value("${firestore.in-memory.latency-jitter-millis:0}") long latencyJitterMillis,
+                                       @Value("${firestore.in-memory.error-rate:0}") double errorRate) {
+        return new InMemoryFirestore(new InMemoryDocumentStore(), latencyMillis, latencyJitterMillis, errorRate).create();
+    }
 }
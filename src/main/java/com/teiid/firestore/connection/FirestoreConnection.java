@@ -1,10 +1,16 @@
 package com.teiid.firestore.connection;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.WriteBatch;
 import org.teiid.resource.api.Connection;
 
+import java.util.List;
+
 
 public interface FirestoreConnection extends Connection {
     CollectionReference collection(String documentName);
@@ -12,4 +18,10 @@ public interface FirestoreConnection extends Connection {
     Query collectionGroup(String collectionName);
 
     WriteBatch batch();
+
+    /**
+     * Reads the documents in one batched get, in the order of the references; missing documents are
+     * returned as snapshots that don't exist.
+     */
+    ApiFuture<List<DocumentSnapshot>> getAll(DocumentReference[] references, FieldMask fieldMask);
 }
@@ -1,11 +1,17 @@
 package com.teiid.firestore.connection;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.WriteBatch;
 import org.teiid.spring.data.BaseConnection;
 
+import java.util.List;
+
 public class FirestoreConnectionImpl extends BaseConnection implements FirestoreConnection {
     private final Firestore firestore;
 
@@ -28,6 +34,11 @@ public class FirestoreConnectionImpl extends BaseConnection implements Firestore
         return firestore.batch();
     }
 
+    @Override
+    public ApiFuture<List<DocumentSnapshot>> getAll(DocumentReference[] references, FieldMask fieldMask) {
+        return firestore.getAll(references, fieldMask);
+    }
+
     @Override
     public void close() {
     }
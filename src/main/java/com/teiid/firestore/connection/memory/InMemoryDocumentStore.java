@@ -0,0 +1,377 @@
+package com.teiid.firestore.connection.memory;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.firestore.v1.*;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Documents kept in memory in one concurrent sorted map per collection path, with Firestore semantics
+ * for the requests the translator sends: structured queries over a collection or a collection group,
+ * batched gets and atomic commits with preconditions. Commits are serialized; queries read without
+ * locking and may observe a commit that is still being applied.
+ */
+public class InMemoryDocumentStore {
+    private static final String DOCUMENT_ID = "__name__";
+
+    private final Map<String, ConcurrentSkipListMap<String, Document>> collections = new ConcurrentHashMap<>();
+    private final Object commitLock = new Object();
+
+    public CommitResponse commit(CommitRequest request) {
+        synchronized (commitLock) {
+            for (Write write : request.getWritesList()) {
+                checkPrecondition(write);
+            }
+            Timestamp commitTime = now();
+            CommitResponse.Builder response = CommitResponse.newBuilder().setCommitTime(commitTime);
+            for (Write write : request.getWritesList()) {
+                apply(write, commitTime);
+                response.addWriteResults(WriteResult.newBuilder().setUpdateTime(commitTime));
+            }
+            return response.build();
+        }
+    }
+
+    public List<RunQueryResponse> runQuery(RunQueryRequest request) {
+        Timestamp readTime = now();
+        List<RunQueryResponse> responses = query(request.getParent(), request.getStructuredQuery()).stream()
+                .map(document -> RunQueryResponse.newBuilder().setDocument(document).setReadTime(readTime).build())
+                .collect(Collectors.toList());
+        return responses.isEmpty() ? List.of(RunQueryResponse.newBuilder().setReadTime(readTime).build()) : responses;
+    }
+
+    public List<BatchGetDocumentsResponse> batchGet(BatchGetDocumentsRequest request) {
+        Timestamp readTime = now();
+        return request.getDocumentsList().stream()
+                .map(name -> {
+                    Document document = find(name);
+                    BatchGetDocumentsResponse.Builder response = BatchGetDocumentsResponse.newBuilder().setReadTime(readTime);
+                    if (document == null) return response.setMissing(name).build();
+                    return response.setFound(request.hasMask() ? project(document, request.getMask().getFieldPathsList()) : document).build();
+                })
+                .collect(Collectors.toList());
+    }
+
+    private void checkPrecondition(Write write) {
+        if (!write.hasCurrentDocument()) return;
+        String name = write.hasUpdate() ? write.getUpdate().getName() : write.getDelete();
+        Document existing = find(name);
+        Precondition precondition = write.getCurrentDocument();
+        if (precondition.getConditionTypeCase() == Precondition.ConditionTypeCase.EXISTS) {
+            if (precondition.getExists() && existing == null) {
+                throw error(Status.Code.NOT_FOUND, "No document to update: " + name);
+            }
+            if (!precondition.getExists() && existing != null) {
+                throw error(Status.Code.ALREADY_EXISTS, "Document already exists: " + name);
+            }
+        } else if (precondition.getConditionTypeCase() == Precondition.ConditionTypeCase.UPDATE_TIME) {
+            if (existing == null || Values.compareTimestamps(existing.getUpdateTime(), precondition.getUpdateTime()) != 0) {
+                throw error(Status.Code.FAILED_PRECONDITION, "Document was updated concurrently: " + name);
+            }
+        }
+    }
+
+    private void apply(Write write, Timestamp commitTime) {
+        if (!write.hasUpdate()) {
+            String name = write.getDelete();
+            ConcurrentSkipListMap<String, Document> collection = collections.get(parentPath(name));
+            if (collection != null) collection.remove(lastSegment(name));
+            return;
+        }
+        Document update = write.getUpdate();
+        String name = update.getName();
+        Document existing = find(name);
+        Map<String, Value> fields;
+        if (write.hasUpdateMask()) {
+            fields = existing != null ? new HashMap<>(existing.getFieldsMap()) : new HashMap<>();
+            for (String fieldPath : write.getUpdateMask().getFieldPathsList()) {
+                List<String> segments = parseFieldPath(fieldPath);
+                Value value = lookup(update.getFieldsMap(), segments);
+                fields = value != null ? putNested(fields, segments, value) : removeNested(fields, segments);
+            }
+        } else {
+            fields = update.getFieldsMap();
+        }
+        Document document = Document.newBuilder()
+                .setName(name)
+                .putAllFields(fields)
+                .setCreateTime(existing != null ? existing.getCreateTime() : commitTime)
+                .setUpdateTime(commitTime)
+                .build();
+        collections.computeIfAbsent(parentPath(name), path -> new ConcurrentSkipListMap<>(Values::compareStrings))
+                .put(lastSegment(name), document);
+    }
+
+    private List<Document> query(String parent, StructuredQuery query) {
+        StructuredQuery.CollectionSelector from = query.getFrom(0);
+        Stream<Document> documents;
+        if (from.getAllDescendants()) {
+            String prefix = parent + "/";
+            documents = collections.entrySet().stream()
+                    .filter(collection -> collection.getKey().startsWith(prefix) && lastSegment(collection.getKey()).equals(from.getCollectionId()))
+                    .flatMap(collection -> collection.getValue().values().stream());
+        } else {
+            ConcurrentSkipListMap<String, Document> collection = collections.get(parent + "/" + from.getCollectionId());
+            documents = collection != null ? collection.values().stream() : Stream.empty();
+        }
+        if (query.hasWhere()) {
+            documents = documents.filter(document -> matches(document, query.getWhere()));
+        }
+        List<StructuredQuery.Order> orders = effectiveOrder(query);
+        List<Document> results = documents
+                .filter(document -> orders.stream().allMatch(order -> value(document, order.getField().getFieldPath()) != null))
+                .sorted((left, right) -> compareOrderKeys(left, right, orders))
+                .filter(document -> !query.hasStartAt() || isAfterStart(document, query.getStartAt(), orders))
+                .filter(document -> !query.hasEndAt() || isBeforeEnd(document, query.getEndAt(), orders))
+                .skip(query.getOffset())
+                .limit(query.hasLimit() ? query.getLimit().getValue() : Long.MAX_VALUE)
+                .collect(Collectors.toList());
+        if (query.hasSelect()) {
+            List<String> fieldPaths = query.getSelect().getFieldsList().stream()
+                    .map(StructuredQuery.FieldReference::getFieldPath)
+                    .filter(fieldPath -> !fieldPath.equals(DOCUMENT_ID))
+                    .collect(Collectors.toList());
+            results = results.stream().map(document -> project(document, fieldPaths)).collect(Collectors.toList());
+        }
+        return results;
+    }
+
+    /**
+     * The explicit ordering, preceded by the first inequality field when there is none, and followed by
+     * the document name in the direction of the last ordering, as Firestore orders results.
+     */
+    private List<StructuredQuery.Order> effectiveOrder(StructuredQuery query) {
+        List<StructuredQuery.Order> orders = new ArrayList<>(query.getOrderByList());
+        if (orders.isEmpty() && query.hasWhere()) {
+            inequalityField(query.getWhere()).ifPresent(field -> orders.add(StructuredQuery.Order.newBuilder()
+                    .setField(field)
+                    .setDirection(StructuredQuery.Direction.ASCENDING)
+                    .build()));
+        }
+        boolean orderedByName = orders.stream().anyMatch(order -> order.getField().getFieldPath().equals(DOCUMENT_ID));
+        if (!orderedByName) {
+            StructuredQuery.Direction direction = orders.isEmpty() ? StructuredQuery.Direction.ASCENDING : orders.get(orders.size() - 1).getDirection();
+            orders.add(StructuredQuery.Order.newBuilder()
+                    .setField(StructuredQuery.FieldReference.newBuilder().setFieldPath(DOCUMENT_ID))
+                    .setDirection(direction)
+                    .build());
+        }
+        return orders;
+    }
+
+    private Optional<StructuredQuery.FieldReference> inequalityField(StructuredQuery.Filter filter) {
+        if (filter.hasCompositeFilter()) {
+            return filter.getCompositeFilter().getFiltersList().stream()
+                    .map(this::inequalityField)
+                    .flatMap(Optional::stream)
+                    .findFirst();
+        }
+        if (filter.hasFieldFilter() && isInequality(filter.getFieldFilter().getOp())) {
+            return Optional.of(filter.getFieldFilter().getField());
+        }
+        return Optional.empty();
+    }
+
+    private boolean isInequality(StructuredQuery.FieldFilter.Operator operator) {
+        switch (operator) {
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean matches(Document document, StructuredQuery.Filter filter) {
+        if (filter.hasCompositeFilter()) {
+            return filter.getCompositeFilter().getFiltersList().stream().allMatch(nested -> matches(document, nested));
+        }
+        if (filter.hasUnaryFilter()) {
+            StructuredQuery.UnaryFilter unaryFilter = filter.getUnaryFilter();
+            Value value = value(document, unaryFilter.getField().getFieldPath());
+            if (value == null) return false;
+            switch (unaryFilter.getOp()) {
+                case IS_NAN:
+                    return Values.isNaN(value);
+                case IS_NULL:
+                    return value.getValueTypeCase() == Value.ValueTypeCase.NULL_VALUE;
+                default:
+                    throw error(Status.Code.INVALID_ARGUMENT, "Unsupported filter " + unaryFilter.getOp());
+            }
+        }
+        StructuredQuery.FieldFilter fieldFilter = filter.getFieldFilter();
+        Value value = value(document, fieldFilter.getField().getFieldPath());
+        if (value == null) return false;
+        Value operand = fieldFilter.getValue();
+        switch (fieldFilter.getOp()) {
+            case EQUAL:
+                return Values.equal(value, operand);
+            case LESS_THAN:
+                return Values.sameType(value, operand) && Values.compare(value, operand) < 0;
+            case LESS_THAN_OR_EQUAL:
+                return Values.sameType(value, operand) && Values.compare(value, operand) <= 0;
+            case GREATER_THAN:
+                return Values.sameType(value, operand) && Values.compare(value, operand) > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return Values.sameType(value, operand) && Values.compare(value, operand) >= 0;
+            case ARRAY_CONTAINS:
+                return value.hasArrayValue() && value.getArrayValue().getValuesList().stream().anyMatch(element -> Values.equal(element, operand));
+            case IN:
+                return operand.getArrayValue().getValuesList().stream().anyMatch(candidate -> Values.equal(value, candidate));
+            case ARRAY_CONTAINS_ANY:
+                return value.hasArrayValue() && value.getArrayValue().getValuesList().stream()
+                        .anyMatch(element -> operand.getArrayValue().getValuesList().stream().anyMatch(candidate -> Values.equal(element, candidate)));
+            default:
+                throw error(Status.Code.INVALID_ARGUMENT, "Unsupported filter " + fieldFilter.getOp());
+        }
+    }
+
+    private int compareOrderKeys(Document left, Document right, List<StructuredQuery.Order> orders) {
+        for (StructuredQuery.Order order : orders) {
+            String fieldPath = order.getField().getFieldPath();
+            int comparison = compareOrderValues(value(left, fieldPath), value(right, fieldPath), fieldPath);
+            if (comparison != 0) return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -comparison : comparison;
+        }
+        return 0;
+    }
+
+    private int compareOrderValues(Value left, Value right, String fieldPath) {
+        if (fieldPath.equals(DOCUMENT_ID)) return Values.comparePaths(left.getReferenceValue(), right.getReferenceValue());
+        return Values.compare(left, right);
+    }
+
+    /**
+     * @return the comparison of the document's order key with the cursor, over the cursor's values only
+     */
+    private int compareToCursor(Document document, Cursor cursor, List<StructuredQuery.Order> orders) {
+        for (int i = 0; i < cursor.getValuesCount() && i < orders.size(); i++) {
+            StructuredQuery.Order order = orders.get(i);
+            String fieldPath = order.getField().getFieldPath();
+            int comparison = compareOrderValues(value(document, fieldPath), cursor.getValues(i), fieldPath);
+            if (comparison != 0) return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -comparison : comparison;
+        }
+        return 0;
+    }
+
+    private boolean isAfterStart(Document document, Cursor start, List<StructuredQuery.Order> orders) {
+        int comparison = compareToCursor(document, start, orders);
+        return start.getBefore() ? comparison >= 0 : comparison > 0;
+    }
+
+    private boolean isBeforeEnd(Document document, Cursor end, List<StructuredQuery.Order> orders) {
+        int comparison = compareToCursor(document, end, orders);
+        return end.getBefore() ? comparison < 0 : comparison <= 0;
+    }
+
+    private Document project(Document document, List<String> fieldPaths) {
+        Map<String, Value> fields = new HashMap<>();
+        for (String fieldPath : fieldPaths) {
+            List<String> segments = parseFieldPath(fieldPath);
+            Value value = lookup(document.getFieldsMap(), segments);
+            if (value != null) fields = putNested(fields, segments, value);
+        }
+        return document.toBuilder().clearFields().putAllFields(fields).build();
+    }
+
+    private Value value(Document document, String fieldPath) {
+        if (fieldPath.equals(DOCUMENT_ID)) return Value.newBuilder().setReferenceValue(document.getName()).build();
+        return lookup(document.getFieldsMap(), parseFieldPath(fieldPath));
+    }
+
+    private static Value lookup(Map<String, Value> fields, List<String> segments) {
+        Value value = fields.get(segments.get(0));
+        for (int i = 1; i < segments.size() && value != null; i++) {
+            value = value.hasMapValue() ? value.getMapValue().getFieldsMap().get(segments.get(i)) : null;
+        }
+        return value;
+    }
+
+    private static Map<String, Value> putNested(Map<String, Value> fields, List<String> segments, Value value) {
+        Map<String, Value> result = new HashMap<>(fields);
+        String head = segments.get(0);
+        if (segments.size() == 1) {
+            result.put(head, value);
+        } else {
+            Value nested = fields.get(head);
+            Map<String, Value> nestedFields = nested != null && nested.hasMapValue() ? nested.getMapValue().getFieldsMap() : Map.of();
+            result.put(head, mapValue(putNested(nestedFields, segments.subList(1, segments.size()), value)));
+        }
+        return result;
+    }
+
+    private static Map<String, Value> removeNested(Map<String, Value> fields, List<String> segments) {
+        Map<String, Value> result = new HashMap<>(fields);
+        String head = segments.get(0);
+        if (segments.size() == 1) {
+            result.remove(head);
+        } else {
+            Value nested = fields.get(head);
+            if (nested != null && nested.hasMapValue()) {
+                result.put(head, mapValue(removeNested(nested.getMapValue().getFieldsMap(), segments.subList(1, segments.size()))));
+            }
+        }
+        return result;
+    }
+
+    private static Value mapValue(Map<String, Value> fields) {
+        return Value.newBuilder().setMapValue(MapValue.newBuilder().putAllFields(fields)).build();
+    }
+
+    /**
+     * Splits a canonical field path, where segments that aren't simple identifiers are quoted in
+     * backticks with backslash escapes, e.g. {@code Religion.`No religion`}.
+     */
+    static List<String> parseFieldPath(String fieldPath) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < fieldPath.length(); i++) {
+            char c = fieldPath.charAt(i);
+            if (quoted && c == '\\' && i + 1 < fieldPath.length()) {
+                segment.append(fieldPath.charAt(++i));
+            } else if (c == '`') {
+                quoted = !quoted;
+            } else if (c == '.' && !quoted) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+            } else {
+                segment.append(c);
+            }
+        }
+        segments.add(segment.toString());
+        return segments;
+    }
+
+    private Document find(String name) {
+        ConcurrentSkipListMap<String, Document> collection = collections.get(parentPath(name));
+        return collection != null ? collection.get(lastSegment(name)) : null;
+    }
+
+    private static String parentPath(String path) {
+        return path.substring(0, path.lastIndexOf('/'));
+    }
+
+    private static String lastSegment(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Timestamp now() {
+        Instant now = Instant.now();
+        return Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()).build();
+    }
+
+    static ApiException error(Status.Code code, String message) {
+        return ApiExceptionFactory.createException(new IllegalStateException(message), GrpcStatusCode.of(code), false);
+    }
+}
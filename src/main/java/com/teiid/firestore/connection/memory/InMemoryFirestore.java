@@ -0,0 +1,246 @@
+package com.teiid.firestore.connection.memory;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.ServerStreamingCallable;
+import com.google.api.gax.rpc.StreamController;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.spi.v1.FirestoreRpc;
+import com.google.firestore.v1.BatchGetDocumentsRequest;
+import com.google.firestore.v1.BatchGetDocumentsResponse;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.CommitResponse;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.RunQueryResponse;
+import io.grpc.Status;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Firestore client served by an {@link InMemoryDocumentStore} instead of the network. The client itself
+ * is the real one, so queries and writes are built exactly as against GCP; only the RPC layer is replaced.
+ * Every RPC completes asynchronously after the configured latency plus a random jitter, and fails with
+ * UNAVAILABLE at the configured error rate. Streaming RPCs honor the observer's flow control, delivering
+ * only the responses it requested once it disables automatic flow control, and end with CANCELLED when
+ * the observer cancels them.
+ * <p>
+ * The RPCs served are {@code commit}, {@code runQuery} and {@code batchGetDocuments}, which are all the
+ * translator sends. Any other RPC, such as transactions, listen or list collection ids, fails with
+ * UNIMPLEMENTED like a call to a server that doesn't provide it.
+ */
+public class InMemoryFirestore {
+    static final String PROJECT_ID = "in-memory";
+
+    private final InMemoryDocumentStore store;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double errorRate;
+    private final ScheduledExecutorService scheduler;
+
+    public InMemoryFirestore(InMemoryDocumentStore store, long latencyMillis, long latencyJitterMillis, double errorRate) {
+        this.store = store;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.errorRate = errorRate;
+        this.scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "in-memory-firestore");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Firestore create() {
+        FirestoreRpc rpc = (FirestoreRpc) Proxy.newProxyInstance(FirestoreRpc.class.getClassLoader(),
+                new Class<?>[]{FirestoreRpc.class},
+                (proxy, method, arguments) -> invoke(proxy, method, arguments));
+        return FirestoreOptions.newBuilder()
+                .setProjectId(PROJECT_ID)
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> rpc)
+                .build()
+                .getService();
+    }
+
+    /**
+     * Dispatches by name, so the store works with every client version whatever other RPCs they declare.
+     */
+    private Object invoke(Object proxy, Method method, Object[] arguments) {
+        switch (method.getName()) {
+            case "commitCallable":
+                return unary(store::commit);
+            case "runQueryCallable":
+                return streaming(store::runQuery);
+            case "batchGetDocumentsCallable":
+                return streaming(store::batchGet);
+            case "getExecutor":
+                return scheduler;
+            case "close":
+            case "shutdown":
+            case "shutdownNow":
+                return null;
+            case "awaitTermination":
+                return true;
+            case "isShutdown":
+            case "isTerminated":
+                return false;
+            case "equals":
+                return proxy == arguments[0];
+            case "hashCode":
+                return System.identityHashCode(this);
+            case "toString":
+                return "InMemoryFirestoreRpc";
+            default:
+                return unimplemented(method);
+        }
+    }
+
+    /**
+     * Serves the RPC with a callable failing every call with UNIMPLEMENTED, through the same error path as
+     * the modeled RPCs.
+     */
+    private Object unimplemented(Method method) {
+        String message = method.getName().replace("Callable", "") + " is not supported by the in-memory Firestore";
+        if (UnaryCallable.class.isAssignableFrom(method.getReturnType())) {
+            return unary(request -> {
+                throw InMemoryDocumentStore.error(Status.Code.UNIMPLEMENTED, message);
+            });
+        }
+        if (ServerStreamingCallable.class.isAssignableFrom(method.getReturnType())) {
+            return streaming(request -> {
+                throw InMemoryDocumentStore.error(Status.Code.UNIMPLEMENTED, message);
+            });
+        }
+        throw InMemoryDocumentStore.error(Status.Code.UNIMPLEMENTED, message);
+    }
+
+    private <RequestT, ResponseT> UnaryCallable<RequestT, ResponseT> unary(Function<RequestT, ResponseT> call) {
+        return new UnaryCallable<RequestT, ResponseT>() {
+            @Override
+            public ApiFuture<ResponseT> futureCall(RequestT request, ApiCallContext context) {
+                SettableApiFuture<ResponseT> response = SettableApiFuture.create();
+                schedule(() -> {
+                    try {
+                        response.set(call.apply(request));
+                    } catch (ApiException e) {
+                        response.setException(e);
+                    }
+                }, response::setException);
+                return response;
+            }
+        };
+    }
+
+    private <RequestT, ResponseT> ServerStreamingCallable<RequestT, ResponseT> streaming(Function<RequestT, List<ResponseT>> call) {
+        return new ServerStreamingCallable<RequestT, ResponseT>() {
+            @Override
+            public void call(RequestT request, ResponseObserver<ResponseT> observer, ApiCallContext context) {
+                ResponseStream<ResponseT> stream = new ResponseStream<>(observer);
+                observer.onStart(stream);
+                schedule(() -> {
+                    try {
+                        stream.start(call.apply(request));
+                    } catch (ApiException e) {
+                        stream.fail(e);
+                    }
+                }, stream::fail);
+            }
+        };
+    }
+
+    private void schedule(Runnable call, Consumer<Throwable> onError) {
+        long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+        boolean fail = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        scheduler.schedule(() -> {
+            if (fail) {
+                onError.accept(InMemoryDocumentStore.error(Status.Code.UNAVAILABLE, "Injected failure"));
+            } else {
+                call.run();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Delivers the responses of a streaming RPC as the observer requests them, on the scheduler threads but
+     * never concurrently. A cancel takes effect between two responses, after which only the CANCELLED error
+     * is delivered.
+     */
+    private class ResponseStream<ResponseT> implements StreamController {
+        private final ResponseObserver<ResponseT> observer;
+        private Iterator<ResponseT> responses;
+        private boolean autoFlowControl = true;
+        private long requested;
+        private volatile boolean cancelled;
+        private boolean done;
+
+        private ResponseStream(ResponseObserver<ResponseT> observer) {
+            this.observer = observer;
+        }
+
+        private void start(List<ResponseT> responses) {
+            synchronized (this) {
+                this.responses = responses.iterator();
+            }
+            drain();
+        }
+
+        private void fail(Throwable error) {
+            synchronized (this) {
+                if (done) return;
+                done = true;
+            }
+            observer.onError(error);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            scheduler.execute(this::drain);
+        }
+
+        @Override
+        public synchronized void disableAutoInboundFlowControl() {
+            autoFlowControl = false;
+        }
+
+        @Override
+        public void request(int count) {
+            synchronized (this) {
+                requested += count;
+            }
+            scheduler.execute(this::drain);
+        }
+
+        private synchronized void drain() {
+            if (done) return;
+            if (cancelled) {
+                done = true;
+                observer.onError(InMemoryDocumentStore.error(Status.Code.CANCELLED, "Cancelled by the client"));
+                return;
+            }
+            if (responses == null) return;
+            while (responses.hasNext() && (autoFlowControl || requested > 0) && !cancelled) {
+                requested--;
+                observer.onResponse(responses.next());
+            }
+            if (!responses.hasNext() && !cancelled) {
+                done = true;
+                observer.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.teiid.firestore.connection.memory;
+
+import com.google.firestore.v1.ArrayValue;
+import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ordering and equality of Firestore values: values of different types order by type, numbers compare
+ * across integers and doubles with NaN first, and strings compare by code point, matching UTF-8 byte order.
+ */
+final class Values {
+    private Values() {
+    }
+
+    static int typeOrder(Value value) {
+        switch (value.getValueTypeCase()) {
+            case NULL_VALUE:
+                return 0;
+            case BOOLEAN_VALUE:
+                return 1;
+            case INTEGER_VALUE:
+            case DOUBLE_VALUE:
+                return 2;
+            case TIMESTAMP_VALUE:
+                return 3;
+            case STRING_VALUE:
+                return 4;
+            case BYTES_VALUE:
+                return 5;
+            case REFERENCE_VALUE:
+                return 6;
+            case GEO_POINT_VALUE:
+                return 7;
+            case ARRAY_VALUE:
+                return 8;
+            case MAP_VALUE:
+                return 9;
+            default:
+                return 10;
+        }
+    }
+
+    static boolean sameType(Value left, Value right) {
+        return typeOrder(left) == typeOrder(right);
+    }
+
+    static boolean equal(Value left, Value right) {
+        return sameType(left, right) && compare(left, right) == 0;
+    }
+
+    static int compare(Value left, Value right) {
+        int typeComparison = Integer.compare(typeOrder(left), typeOrder(right));
+        if (typeComparison != 0) return typeComparison;
+        switch (left.getValueTypeCase()) {
+            case BOOLEAN_VALUE:
+                return Boolean.compare(left.getBooleanValue(), right.getBooleanValue());
+            case INTEGER_VALUE:
+            case DOUBLE_VALUE:
+                return compareNumbers(left, right);
+            case TIMESTAMP_VALUE:
+                return compareTimestamps(left.getTimestampValue(), right.getTimestampValue());
+            case STRING_VALUE:
+                return compareStrings(left.getStringValue(), right.getStringValue());
+            case BYTES_VALUE:
+                return compareBytes(left.getBytesValue(), right.getBytesValue());
+            case REFERENCE_VALUE:
+                return comparePaths(left.getReferenceValue(), right.getReferenceValue());
+            case GEO_POINT_VALUE:
+                return compareGeoPoints(left.getGeoPointValue(), right.getGeoPointValue());
+            case ARRAY_VALUE:
+                return compareArrays(left.getArrayValue(), right.getArrayValue());
+            case MAP_VALUE:
+                return compareMaps(left.getMapValue(), right.getMapValue());
+            default:
+                return 0;
+        }
+    }
+
+    static boolean isNaN(Value value) {
+        return value.getValueTypeCase() == Value.ValueTypeCase.DOUBLE_VALUE && Double.isNaN(value.getDoubleValue());
+    }
+
+    private static int compareNumbers(Value left, Value right) {
+        if (left.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE && right.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE) {
+            return Long.compare(left.getIntegerValue(), right.getIntegerValue());
+        }
+        double leftNumber = toDouble(left);
+        double rightNumber = toDouble(right);
+        if (Double.isNaN(leftNumber)) return Double.isNaN(rightNumber) ? 0 : -1;
+        if (Double.isNaN(rightNumber)) return 1;
+        return Double.compare(leftNumber, rightNumber);
+    }
+
+    private static double toDouble(Value value) {
+        return value.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE ? value.getIntegerValue() : value.getDoubleValue();
+    }
+
+    static int compareTimestamps(Timestamp left, Timestamp right) {
+        int comparison = Long.compare(left.getSeconds(), right.getSeconds());
+        return comparison != 0 ? comparison : Integer.compare(left.getNanos(), right.getNanos());
+    }
+
+    static int compareStrings(String left, String right) {
+        int leftIndex = 0;
+        int rightIndex = 0;
+        while (leftIndex < left.length() && rightIndex < right.length()) {
+            int leftCodePoint = left.codePointAt(leftIndex);
+            int rightCodePoint = right.codePointAt(rightIndex);
+            if (leftCodePoint != rightCodePoint) return Integer.compare(leftCodePoint, rightCodePoint);
+            leftIndex += Character.charCount(leftCodePoint);
+            rightIndex += Character.charCount(rightCodePoint);
+        }
+        return Integer.compare(left.length() - leftIndex, right.length() - rightIndex);
+    }
+
+    private static int compareBytes(ByteString left, ByteString right) {
+        int size = Math.min(left.size(), right.size());
+        for (int i = 0; i < size; i++) {
+            int comparison = Integer.compare(left.byteAt(i) & 0xff, right.byteAt(i) & 0xff);
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(left.size(), right.size());
+    }
+
+    /**
+     * Compares resource paths segment by segment, so that children sort right after their parent.
+     */
+    static int comparePaths(String left, String right) {
+        String[] leftSegments = left.split("/");
+        String[] rightSegments = right.split("/");
+        int size = Math.min(leftSegments.length, rightSegments.length);
+        for (int i = 0; i < size; i++) {
+            int comparison = compareStrings(leftSegments[i], rightSegments[i]);
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(leftSegments.length, rightSegments.length);
+    }
+
+    private static int compareGeoPoints(LatLng left, LatLng right) {
+        int comparison = Double.compare(left.getLatitude(), right.getLatitude());
+        return comparison != 0 ? comparison : Double.compare(left.getLongitude(), right.getLongitude());
+    }
+
+    private static int compareArrays(ArrayValue left, ArrayValue right) {
+        List<Value> leftValues = left.getValuesList();
+        List<Value> rightValues = right.getValuesList();
+        int size = Math.min(leftValues.size(), rightValues.size());
+        for (int i = 0; i < size; i++) {
+            int comparison = compare(leftValues.get(i), rightValues.get(i));
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(leftValues.size(), rightValues.size());
+    }
+
+    private static int compareMaps(MapValue left, MapValue right) {
+        Iterator<Map.Entry<String, Value>> leftEntries = sorted(left.getFieldsMap()).entrySet().iterator();
+        Iterator<Map.Entry<String, Value>> rightEntries = sorted(right.getFieldsMap()).entrySet().iterator();
+        while (leftEntries.hasNext() && rightEntries.hasNext()) {
+            Map.Entry<String, Value> leftEntry = leftEntries.next();
+            Map.Entry<String, Value> rightEntry = rightEntries.next();
+            int comparison = compareStrings(leftEntry.getKey(), rightEntry.getKey());
+            if (comparison == 0) comparison = compare(leftEntry.getValue(), rightEntry.getValue());
+            if (comparison != 0) return comparison;
+        }
+        return Boolean.compare(leftEntries.hasNext(), rightEntries.hasNext());
+    }
+
+    private static Map<String, Value> sorted(Map<String, Value> fields) {
+        Map<String, Value> sorted = new TreeMap<>(Values::compareStrings);
+        sorted.putAll(fields);
+        return sorted;
+    }
+}
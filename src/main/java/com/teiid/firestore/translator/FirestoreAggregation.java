@@ -0,0 +1,295 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.translator.common.DocumentComparator;
+import com.teiid.firestore.translator.common.DocumentStream;
+import com.teiid.firestore.translator.common.FanOutScheduler;
+import com.teiid.firestore.translator.common.FirestoreCommand;
+import com.teiid.firestore.translator.common.RowMaterializer;
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.AndOr;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.Limit;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.OrderBy;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * Computes an ungrouped aggregate select with the smallest reads Firestore allows. MIN and MAX each read
+ * the first document of a query ordered by their column; both bound the query to values of the column's
+ * type, as nulls and the types Firestore orders before it would come first for MIN, and the types it orders
+ * after it for MAX. Meanwhile COUNT, SUM and AVG share a single scan
+ * projected to the columns they aggregate, or reading document names only for COUNT(*). This client
+ * predates server-side aggregation queries, so counting still visits every matching document.
+ * <p>
+ * All queries start together, and {@link #next()} resumes where it left off when a query has no data
+ * available yet.
+ */
+class FirestoreAggregation {
+    private final List<Aggregate> aggregates = new ArrayList<>();
+    private final List<Pass> passes = new ArrayList<>();
+    private int current;
+    private boolean returned;
+
+    FirestoreAggregation(Select select, FirestoreConnection connection, FirestoreExecutionFactory executionFactory,
+                         @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) throws TranslatorException {
+        NamedTable table = (NamedTable) select.getFrom().get(0);
+        Condition where = select.getWhere();
+        Set<String> rangeFields = executionFactory.getWhereProcessor().getRangeFields(where);
+        List<Aggregate> scanned = new ArrayList<>();
+        Set<String> scannedFields = new LinkedHashSet<>();
+        try {
+            for (DerivedColumn derivedColumn : select.getDerivedColumns()) {
+                AggregateFunction function = aggregateFunction(derivedColumn.getExpression());
+                ColumnReference column = function.getParameters().isEmpty() ? null : column(function.getParameters().get(0));
+                String field = column != null ? nameInSource(column) : null;
+                String name = function.getName();
+                boolean max = name.equalsIgnoreCase(AggregateFunction.MAX);
+                Aggregate aggregate;
+                if (max || name.equalsIgnoreCase(AggregateFunction.MIN)) {
+                    boolean ordered = !field.endsWith(PARENT_ID_SUFFIX) && rangeFields.stream().allMatch(field::equals);
+                    aggregate = new Extreme(field, function.getType(), max, ordered);
+                    if (ordered) {
+                        OrderBy orderBy = new OrderBy(List.of(new SortSpecification(max ? SortSpecification.Ordering.DESC : SortSpecification.Ordering.ASC, column)));
+                        boolean byDocumentId = field.equals(FieldPath.documentId().toString());
+                        Condition bound = byDocumentId ? null : typeBound(column, max);
+                        // without a lower bound of its type MIN reads on until the first value
+                        boolean single = max || byDocumentId || bound != null;
+                        FirestoreCommand command = new FirestoreCommand(table, bound == null ? where : where == null ? bound : new AndOr(where, bound, AndOr.Operator.AND),
+                                single ? new Limit(0, 1) : null, orderBy, new String[]{field});
+                        passes.add(new Pass(new FirestoreExecution(connection, executionFactory, command, dataAvailable, lane).execute(), List.of(aggregate)));
+                    } else {
+                        scanned.add(aggregate);
+                        scannedFields.add(field);
+                    }
+                } else if (name.equalsIgnoreCase(AggregateFunction.COUNT)) {
+                    aggregate = new Count(field, function.getType());
+                    scanned.add(aggregate);
+                    if (field != null) scannedFields.add(field);
+                } else if (name.equalsIgnoreCase(AggregateFunction.SUM) || name.equalsIgnoreCase(AggregateFunction.AVG)) {
+                    aggregate = new Sum(field, function.getType(), name.equalsIgnoreCase(AggregateFunction.AVG));
+                    scanned.add(aggregate);
+                    scannedFields.add(field);
+                } else {
+                    throw new TranslatorException("Unsupported aggregate " + name);
+                }
+                aggregates.add(aggregate);
+            }
+            if (!scanned.isEmpty()) {
+                FirestoreCommand command = scannedFields.isEmpty() ?
+                        new FirestoreCommand(table, where) :
+                        new FirestoreCommand(table, where, null, null, scannedFields.toArray(new String[0]));
+                passes.add(new Pass(new FirestoreExecution(connection, executionFactory, command, dataAvailable, lane).execute(), scanned));
+            }
+        } catch (TranslatorException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restricts MIN or MAX to the values of the column's type with a filter Firestore evaluates against
+     * values of that type only: {@code >=} the lowest value of the type for MIN, and {@code <=} the highest
+     * for MAX. Strings have no highest value, so MAX of a string column takes the lower bound too.
+     *
+     * @return the bound, or {@code null} if the type's values are unknown
+     */
+    @Nullable
+    private static Condition typeBound(ColumnReference column, boolean max) {
+        Object highest = max ? highestValue(column.getType()) : null;
+        if (highest != null) return new Comparison(column, new Literal(highest, highest.getClass()), Comparison.Operator.LE);
+        Object lowest = lowestValue(column.getType());
+        return lowest != null ? new Comparison(column, new Literal(lowest, lowest.getClass()), Comparison.Operator.GE) : null;
+    }
+
+    /**
+     * @return the lowest value Firestore orders among the values of the type, or {@code null} if unknown
+     */
+    @Nullable
+    private static Object lowestValue(Class<?> type) {
+        if (type == String.class || type == Character.class) return "";
+        if (Number.class.isAssignableFrom(type)) return Double.NEGATIVE_INFINITY;
+        if (type == Boolean.class) return false;
+        if (java.util.Date.class.isAssignableFrom(type)) return Timestamp.MIN_VALUE;
+        return null;
+    }
+
+    /**
+     * @return the highest value Firestore orders among the values of the type, or {@code null} if the type
+     * has none or is unknown
+     */
+    @Nullable
+    private static Object highestValue(Class<?> type) {
+        if (Number.class.isAssignableFrom(type)) return Double.POSITIVE_INFINITY;
+        if (type == Boolean.class) return true;
+        if (java.util.Date.class.isAssignableFrom(type)) return Timestamp.MAX_VALUE;
+        return null;
+    }
+
+    private static AggregateFunction aggregateFunction(Expression expression) throws TranslatorException {
+        if (!(expression instanceof AggregateFunction)) throw new TranslatorException("Unsupported select expression " + expression);
+        return (AggregateFunction) expression;
+    }
+
+    private static ColumnReference column(Expression expression) throws TranslatorException {
+        if (!(expression instanceof ColumnReference)) throw new TranslatorException("Unsupported aggregate argument " + expression);
+        return (ColumnReference) expression;
+    }
+
+    /**
+     * @return the single row of aggregate values, then {@code null}
+     */
+    @Nullable
+    List<?> next() throws TranslatorException {
+        if (returned) return null;
+        while (current < passes.size()) {
+            passes.get(current).drain();
+            current++;
+        }
+        returned = true;
+        List<Object> row = new ArrayList<>(aggregates.size());
+        for (Aggregate aggregate : aggregates) {
+            Object value = aggregate.result();
+            row.add(value != null ? RowMaterializer.converter(aggregate.type).apply(value) : null);
+        }
+        return row;
+    }
+
+    void close() {
+        passes.forEach(pass -> pass.documents.close());
+    }
+
+    private static class Pass {
+        private final DocumentStream documents;
+        private final List<Aggregate> aggregates;
+
+        private Pass(DocumentStream documents, List<Aggregate> aggregates) {
+            this.documents = documents;
+            this.aggregates = aggregates;
+        }
+
+        private void drain() throws TranslatorException {
+            for (DocumentSnapshot document = documents.next(); document != null; document = documents.next()) {
+                boolean complete = true;
+                for (Aggregate aggregate : aggregates) {
+                    complete &= aggregate.accept(document);
+                }
+                if (complete) break;
+            }
+            documents.close();
+        }
+    }
+
+    private abstract static class Aggregate {
+        protected final String field;
+        private final Class<?> type;
+
+        private Aggregate(String field, Class<?> type) {
+            this.field = field;
+            this.type = type;
+        }
+
+        /**
+         * @return whether the aggregate needs no further documents
+         */
+        abstract boolean accept(DocumentSnapshot document);
+
+        abstract Object result();
+    }
+
+    private static class Count extends Aggregate {
+        private long count;
+
+        private Count(String field, Class<?> type) {
+            super(field, type);
+        }
+
+        @Override
+        boolean accept(DocumentSnapshot document) {
+            if (field == null || fieldValue(document, field) != null) count++;
+            return false;
+        }
+
+        @Override
+        Object result() {
+            return count;
+        }
+    }
+
+    private static class Sum extends Aggregate {
+        private final boolean average;
+        private BigDecimal sum;
+        private long count;
+
+        private Sum(String field, Class<?> type, boolean average) {
+            super(field, type);
+            this.average = average;
+        }
+
+        @Override
+        boolean accept(DocumentSnapshot document) {
+            Object value = fieldValue(document, field);
+            if (value instanceof Number) {
+                BigDecimal number = value instanceof Long ? BigDecimal.valueOf((Long) value) : BigDecimal.valueOf(((Number) value).doubleValue());
+                sum = sum != null ? sum.add(number) : number;
+                count++;
+            }
+            return false;
+        }
+
+        @Override
+        Object result() {
+            if (sum == null || !average) return sum;
+            return sum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+        }
+    }
+
+    /**
+     * MIN or MAX, either taken from the first value of a query ordered by the column or tracked over a scan.
+     */
+    private static class Extreme extends Aggregate {
+        private final boolean max;
+        private final boolean ordered;
+        private Object value;
+
+        private Extreme(String field, Class<?> type, boolean max, boolean ordered) {
+            super(field, type);
+            this.max = max;
+            this.ordered = ordered;
+        }
+
+        @Override
+        boolean accept(DocumentSnapshot document) {
+            Object candidate = fieldValue(document, field);
+            if (candidate != null && (value == null || DocumentComparator.compareValues(candidate, value) * (max ? 1 : -1) > 0)) {
+                value = candidate;
+            }
+            return ordered && value != null;
+        }
+
+        @Override
+        Object result() {
+            return value;
+        }
+    }
+}
@@ -1,108 +1,258 @@
 package com.teiid.firestore.translator;
 
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Query;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.teiid.firestore.connection.FirestoreConnection;
-import com.teiid.firestore.translator.appenders.WhereProcessor;
+import com.teiid.firestore.translator.common.BatchGetDocumentStream;
+import com.teiid.firestore.translator.common.DocumentComparator;
+import com.teiid.firestore.translator.common.DocumentStream;
+import com.teiid.firestore.translator.common.DocumentStreamSupplier;
+import com.teiid.firestore.translator.common.FanOutScheduler;
 import com.teiid.firestore.translator.common.FirestoreCommand;
+import com.teiid.firestore.translator.common.MergedDocumentStream;
+import com.teiid.firestore.translator.common.PagedDocumentStream;
+import com.teiid.firestore.translator.common.QueryResultCache;
 import org.teiid.language.*;
-import org.teiid.metadata.Column;
 import org.teiid.translator.TranslatorException;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
-import static com.google.cloud.firestore.Query.Direction.ASCENDING;
-import static com.google.cloud.firestore.Query.Direction.DESCENDING;
-import static com.teiid.firestore.translator.common.TranslatorUtils.*;
 
 public class FirestoreExecution {
     private FirestoreConnection connection;
-    private WhereProcessor whereProcessor;
+    private FirestoreExecutionFactory executionFactory;
     private FirestoreCommand command;
+    private FirestoreQueryPlan plan;
+    private Object[] literals;
+    private Runnable dataAvailable;
+    private FanOutScheduler.Lane lane;
 
-    public FirestoreExecution(FirestoreConnection connection, WhereProcessor whereProcessor, FirestoreCommand command) {
+    public FirestoreExecution(FirestoreConnection connection, FirestoreExecutionFactory executionFactory, FirestoreCommand command) {
+        this(connection, executionFactory, command, null, executionFactory.getScheduler().lane(null));
+    }
+
+    /**
+     * @param dataAvailable wakes the engine up once data arrives; when given, the returned streams throw
+     *                      {@link org.teiid.translator.DataNotAvailableException} instead of waiting on the network
+     * @param lane          admits the Firestore calls of the query, including those of its disjunction branches
+     */
+    public FirestoreExecution(FirestoreConnection connection, FirestoreExecutionFactory executionFactory, FirestoreCommand command,
+                              @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) {
         this.connection = connection;
-        this.whereProcessor = whereProcessor;
+        this.executionFactory = executionFactory;
         this.command = command;
+        this.dataAvailable = dataAvailable;
+        this.lane = lane;
     }
 
-    public List<QueryDocumentSnapshot> execute() throws InterruptedException, TranslatorException, ExecutionException {
-        NamedTable namedTable = command.getNamedTable();
-        String collectionName = nameInSource(namedTable);
-        Optional<Column> parentIdColumnMetadata = parentIdColumnMetadata(namedTable);
-        return parentIdColumnMetadata.isPresent() ?
-                executeSubCollectionSelect(collectionName, parentCollectionName(parentIdColumnMetadata.get())) :
-                executeRootCollectionSelect(collectionName);
+    /**
+     * A disjunction branch running the plan of its conjunction with the literals taken from the whole condition.
+     */
+    private FirestoreExecution(FirestoreExecution disjunction, FirestoreQueryPlan plan, Object[] literals) {
+        this(disjunction.connection, disjunction.executionFactory, disjunction.command, disjunction.dataAvailable, disjunction.lane);
+        this.plan = plan;
+        this.literals = literals;
     }
 
-    private List<QueryDocumentSnapshot> executeRootCollectionSelect(String collectionName) throws TranslatorException, ExecutionException, InterruptedException {
-        return executeCollectionSelect(connection.collection(collectionName), command.getFields());
+    private void bind() throws TranslatorException {
+        if (plan != null) return;
+        List<Object> literals = new ArrayList<>();
+        plan = executionFactory.getQueryPlan(command, literals);
+        this.literals = literals.toArray();
     }
 
-    private List<QueryDocumentSnapshot> executeSubCollectionSelect(String collectionName, String parentCollectionName) throws TranslatorException, ExecutionException, InterruptedException {
-        String parentIdEqualityExpressionValue = whereProcessor.getParentIdEqualityExpressionValue(command.getWhere());
-        return parentIdEqualityExpressionValue != null ?
-                executeSingleSubCollectionSelect(collectionName, parentCollectionName, parentIdEqualityExpressionValue) :
-                executeSubCollectionGroupSelect(collectionName);
+    /**
+     * @return the documents addressed by a condition pinning the whole key, or {@code null} if they must be queried
+     */
+    @Nullable
+    List<DocumentReference> resolveKeyReferences() throws TranslatorException {
+        bind();
+        return plan.getKeyReferences(connection, literals);
     }
 
-    private List<QueryDocumentSnapshot> executeSingleSubCollectionSelect(String collectionName, String parentCollectionName, String parentIdEqualityExpressionValue) throws TranslatorException, ExecutionException, InterruptedException {
-        CollectionReference subCollection = connection.collection(parentCollectionName).document(parentIdEqualityExpressionValue).collection(collectionName);
-        return executeCollectionSelect(subCollection, command.getFilteredFields());
+    public DocumentStream execute() throws TranslatorException {
+        bind();
+        QueryResultCache resultCache = executionFactory.getResultCache();
+        Long cacheTtl = plan.getCacheTtl();
+        if (resultCache == null || cacheTtl == null || command.isKeysOnly()) {
+            return executeQuery();
+        }
+        Limit limit = command.getLimit();
+        String key = plan.getKey() + '|' + Arrays.deepToString(literals) + '|' + (limit != null ? limit.getRowLimit() : "");
+        List<DocumentSnapshot> cachedDocuments = resultCache.get(key);
+        if (cachedDocuments != null) {
+            return DocumentStream.of(cachedDocuments);
+        }
+        return resultCache.caching(plan.getCollectionName(), key, cacheTtl, executeQuery());
     }
 
-    private List<QueryDocumentSnapshot> executeSubCollectionGroupSelect(String collectionName) throws TranslatorException, InterruptedException, ExecutionException {
-        Query query = appendQueryCriteria(connection.collectionGroup(collectionName).select(command.getFilteredFields()));
-        List<QueryDocumentSnapshot> documentSnapshots = new ArrayList<>(query.get().get().getDocuments());
-        Condition where = command.getWhere();
-        if (where != null) {
-            whereProcessor.filterCollectionGroup(documentSnapshots, where);
+    private DocumentStream executeQuery() throws TranslatorException {
+        bind();
+        if (!command.isKeysOnly()) {
+            List<DocumentReference> references = plan.getKeyReferences(connection, literals);
+            if (references != null) {
+                return executeLookup(references);
+            }
         }
-        Limit limit = command.getLimit();
-        if (limit != null) {
-            documentSnapshots = documentSnapshots.stream().limit(limit.getRowLimit()).collect(Collectors.toList());
+        if (plan.isFanOut()) {
+            return executeDisjunction();
         }
-        return documentSnapshots;
+        String collectionName = plan.getCollectionName();
+        String parentCollectionName = plan.getParentCollectionName();
+        return parentCollectionName != null ?
+                executeSubCollectionSelect(collectionName, parentCollectionName) :
+                executeRootCollectionSelect(collectionName);
     }
 
-    private List<QueryDocumentSnapshot> executeCollectionSelect(CollectionReference collectionReference, String[] fieldsToSelect) throws TranslatorException, ExecutionException, InterruptedException {
-        Query query = appendQueryCriteria(collectionReference.select(fieldsToSelect));
+    /**
+     * Runs every conjunction as its own query, up to MaxParallelQueries of them at a time, and merges
+     * their results. A document is skipped when an earlier conjunction certainly matches it, as its query
+     * returns it, or when it was already returned. Under a row limit the branch queries are cut short and
+     * may not return every document they match, so the merge keeps the paths returned instead, no more
+     * than the limit.
+     */
+    private DocumentStream executeDisjunction() throws TranslatorException {
         Limit limit = command.getLimit();
-        if (limit != null) {
-            query = appendLimit(query, limit);
+        List<DocumentStreamSupplier> branches = new ArrayList<>(plan.getDisjunctCount());
+        List<Predicate<DocumentSnapshot>> matches = new ArrayList<>(plan.getDisjunctCount());
+        List<Predicate<DocumentSnapshot>> candidates = new ArrayList<>(plan.getDisjunctCount());
+        for (int i = 0; i < plan.getDisjunctCount(); i++) {
+            Object[] branchLiterals = plan.bindDisjunct(i, literals);
+            FirestoreExecution branch = new FirestoreExecution(this, plan.getDisjunctPlan(i), branchLiterals);
+            branches.add(branch::executeQuery);
+            matches.add(limit != null ? document -> false : plan.getDisjunctMatch(i, branchLiterals));
+            candidates.add(limit != null ? document -> true : plan.getDisjunctCandidate(i, branchLiterals));
         }
-        return Objects.requireNonNull(query).get().get().getDocuments();
+        OrderBy orderBy = command.getOrderBy();
+        DocumentStream documents = new MergedDocumentStream(branches, matches, candidates,
+                orderBy != null ? new DocumentComparator(orderBy) : null,
+                executionFactory.getMaxParallelQueries());
+        return limit != null ? documents.limit(limit.getRowLimit()) : documents;
     }
 
-    private Query appendQueryCriteria(Query query) throws TranslatorException {
-        Condition where = command.getWhere();
-        if (where != null) {
-            query = whereProcessor.appendWhere(query, where);
-        }
+    /**
+     * Reads documents whose whole key is pinned with batched gets of PointLookupBatchSize references,
+     * which costs one RPC per batch instead of a query. ORDER BY and LIMIT are applied to the result.
+     */
+    private DocumentStream executeLookup(List<DocumentReference> references) {
+        String[] fields = Arrays.stream(plan.getFilteredFields())
+                .filter(field -> !field.equals(FieldPath.documentId().toString()))
+                .toArray(String[]::new);
+        DocumentStream documents = executionFactory.getMetrics().countLookups(plan.getCollectionName(),
+                new BatchGetDocumentStream(connection, references, fields, executionFactory.getPointLookupBatchSize(), dataAvailable, lane));
         OrderBy orderBy = command.getOrderBy();
+        Limit limit = command.getLimit();
         if (orderBy != null) {
-            query = appendOrderBy(query, orderBy);
+            return documents.sorted(new DocumentComparator(orderBy), limit != null ? limit.getRowLimit() : null);
+        }
+        return limit != null ? documents.limit(limit.getRowLimit()) : documents;
+    }
+
+    private DocumentStream executeRootCollectionSelect(String collectionName) throws TranslatorException {
+        return executeCollectionSelect(connection.collection(collectionName));
+    }
+
+    private DocumentStream executeSubCollectionSelect(String collectionName, String parentCollectionName) throws TranslatorException {
+        String parentIdEqualityExpressionValue = plan.getParentIdEqualityValue(literals);
+        return parentIdEqualityExpressionValue != null ?
+                executeSingleSubCollectionSelect(collectionName, parentCollectionName, parentIdEqualityExpressionValue) :
+                executeSubCollectionGroupSelect(collectionName, parentCollectionName);
+    }
+
+    private DocumentStream executeSingleSubCollectionSelect(String collectionName, String parentCollectionName, String parentIdEqualityExpressionValue) throws TranslatorException {
+        CollectionReference subCollection = connection.collection(parentCollectionName).document(parentIdEqualityExpressionValue).collection(collectionName);
+        return executeCollectionSelect(subCollection);
+    }
+
+    private DocumentStream executeSubCollectionGroupSelect(String collectionName, String parentCollectionName) throws TranslatorException {
+        Query query = plan.appendOrderBy(plan.appendWhere(connection.collectionGroup(collectionName).select(plan.getSelectedFields()), literals));
+        OrderBy orderBy = command.getOrderBy();
+        Limit limit = command.getLimit();
+        boolean sortInMemory = plan.isSortedInMemory();
+        OrderBy runOrderBy = plan.getRunOrderBy();
+        query = plan.appendParentIdRange(query, literals, connection.collection(parentCollectionName));
+        boolean filterByParentId = plan.hasParentIdFilter();
+        if (!filterByParentId && !sortInMemory && runOrderBy == null) {
+            return stream(query, limit);
+        }
+        DocumentStream documents = limit != null && !sortInMemory ? paged(query, limit.getRowLimit()) : stream(query, null);
+        if (filterByParentId) {
+            documents = documents.filter(plan.getCollectionGroupFilter(literals));
         }
-        return query;
+        if (sortInMemory) {
+            return documents.sorted(new DocumentComparator(orderBy), limit.getRowLimit());
+        }
+        if (runOrderBy != null) {
+            documents = documents.sortedRuns(new DocumentComparator(runOrderBy), new DocumentComparator(orderBy));
+        }
+        return limit != null ? documents.limit(limit.getRowLimit()) : documents;
+    }
+
+    private DocumentStream executeCollectionSelect(CollectionReference collectionReference) throws TranslatorException {
+        Query query = appendQueryCriteria(collectionReference.select(plan.getSelectedFields()));
+        return stream(Objects.requireNonNull(query), command.getLimit());
+    }
+
+    private DocumentStream stream(Query query, Limit limit) {
+        return executionFactory.getMetrics().countReads(plan.getCollectionName(), read(query, limit));
     }
 
-    private Query appendOrderBy(Query query, OrderBy orderBy) throws TranslatorException {
-        for (SortSpecification sortSpecification : orderBy.getSortSpecifications()) {
-            String field = nameInSource((MetadataReference) sortSpecification.getExpression());
-            if (field.endsWith(PARENT_ID_SUFFIX)) throw new TranslatorException("Ordering by parentId isn't supported");
-            String ordering = sortSpecification.getOrdering().toString();
-            query = query.orderBy(field, ordering.equals("DESC") ? DESCENDING : ASCENDING);
+    private DocumentStream read(Query query, Limit limit) {
+        Integer pageSize = plan.getPageSize();
+        if (pageSize != null) {
+            return new PagedDocumentStream(query,
+                    plan.getCursorFields(),
+                    pageSize,
+                    plan.isAdaptivePaging(),
+                    executionFactory.getPageLatencyTarget(),
+                    limit != null ? limit.getRowLimit() : Integer.MAX_VALUE,
+                    dataAvailable,
+                    lane);
+        }
+        if (command.isKeysOnly()) {
+            // mutations read matching references a write batch at a time, so each page feeds one commit
+            // while the next page is fetched, and no single RPC outlives its deadline behind slow writes;
+            // the plan projects the ordered fields besides the document id, as the cursors are built from them
+            return new PagedDocumentStream(query, plan.getCursorFields(), executionFactory.getWriteBatchSize(), false,
+                    executionFactory.getPageLatencyTarget(),
+                    limit != null ? limit.getRowLimit() : Integer.MAX_VALUE,
+                    dataAvailable,
+                    lane);
         }
-        return query;
+        // other reads hold at most a page and the next one in flight, and a closed read cancels its page in
+        // flight and requests no more, so an abandoned result costs one page at most
+        return new PagedDocumentStream(query, plan.getCursorFields(), executionFactory.getStreamingBufferSize(), true,
+                executionFactory.getPageLatencyTarget(),
+                limit != null ? limit.getRowLimit() : Integer.MAX_VALUE,
+                dataAvailable,
+                lane);
     }
 
-    private Query appendLimit(Query query, Limit limit) {
-        return query.limit(limit.getRowLimit());
+    /**
+     * Reads a residually filtered query in adaptive pages, so the scan stops shortly after the row limit
+     * is reached instead of downloading the whole result.
+     */
+    private DocumentStream paged(Query query, int rowLimit) {
+        Integer pageSize = plan.getPageSize();
+        return executionFactory.getMetrics().countReads(plan.getCollectionName(), new PagedDocumentStream(query,
+                plan.getCursorFields(),
+                pageSize != null ? pageSize : Math.max(rowLimit, 1),
+                true,
+                executionFactory.getPageLatencyTarget(),
+                Integer.MAX_VALUE,
+                dataAvailable,
+                lane));
+    }
+
+    private Query appendQueryCriteria(Query query) throws TranslatorException {
+        return plan.appendOrderBy(plan.appendWhere(query, literals));
     }
 }
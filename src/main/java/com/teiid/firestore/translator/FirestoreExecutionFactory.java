@@ -20,26 +20,69 @@ package com.teiid.firestore.translator;
 
 import com.teiid.firestore.connection.FirestoreConnection;
 import com.teiid.firestore.translator.appenders.WhereProcessor;
+import com.teiid.firestore.translator.common.FanOutScheduler;
+import com.teiid.firestore.translator.common.FirestoreCommand;
+import com.teiid.firestore.translator.common.FirestoreMetrics;
+import com.teiid.firestore.translator.common.QueryResultCache;
+import com.teiid.firestore.translator.common.WriteThrottle;
+import com.teiid.firestore.translator.replica.CollectionReplica;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.teiid.language.BulkCommand;
 import org.teiid.language.Command;
+import org.teiid.language.NamedTable;
 import org.teiid.language.QueryExpression;
 import org.teiid.language.Select;
 import org.teiid.logging.LogConstants;
 import org.teiid.logging.LogManager;
+import org.teiid.metadata.Column;
 import org.teiid.metadata.RuntimeMetadata;
 import org.teiid.translator.*;
 
+import javax.annotation.Nullable;
 import javax.resource.cci.ConnectionFactory;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
 import static org.teiid.translator.TypeFacility.RUNTIME_NAMES.BOOLEAN;
 import static org.teiid.translator.TypeFacility.RUNTIME_NAMES.STRING;
 
 @Translator(name = "firestore", description = "Firestore custom translator")
 public class FirestoreExecutionFactory extends ExecutionFactory<ConnectionFactory, FirestoreConnection> {
     private WhereProcessor whereProcessor;
+    private int streamingBufferSize = 256;
+    private long pageLatencyTarget = 500;
+    private int maxDisjuncts = 100;
+    private int maxParallelQueries = 10;
+    private int maxParentFanOut = 30;
+    private int dependentJoinBatchSize = 30;
+    private int pointLookupBatchSize = 100;
+    private int writeBatchSize = 500;
+    private int maxInFlightBatches = 4;
+    private double writeRampUpRate = 500;
+    private int writeMaxRetries = 5;
+    private WriteThrottle writeThrottle;
+    private boolean keyedUpdatePrecondition;
+    private boolean asynchronousExecution = true;
+    private int maxConcurrentCalls = 100;
+    private int maxConcurrentCallsPerQuery = 10;
+    private boolean virtualThreads = true;
+    private FanOutScheduler scheduler;
+    private int resultCacheSize = 1000;
+    private int resultCacheMaxRows = 10000;
+    private long resultCacheTotalRows = 100000;
+    private QueryResultCache resultCache;
+    private final Map<String, CollectionReplica> replicas = new ConcurrentHashMap<>();
+    private int queryPlanCacheSize = 1000;
+    private Map<String, FirestoreQueryPlan> queryPlans;
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
+    private FirestoreMetrics metrics;
     private static final String FIRESTORE = "firestore";
     private static final String ARRAY_CONTAINS = "array_contains";
     private static final String STRING_ARRAY = "string[]";
@@ -51,17 +94,328 @@ public class FirestoreExecutionFactory extends ExecutionFactory<ConnectionFactor
         addPushDownFunction(FIRESTORE, ARRAY_CONTAINS, BOOLEAN, STRING_ARRAY, STRING);
         addPushDownFunction(FIRESTORE, ARRAY_CONTAINS_ANY, BOOLEAN, STRING_ARRAY, STRING_ARRAY);
         whereProcessor = new WhereProcessor();
+        metrics = new FirestoreMetrics(meterRegistry);
+        if (resultCacheSize > 0) {
+            resultCache = new QueryResultCache(resultCacheSize, resultCacheMaxRows, resultCacheTotalRows);
+            metrics.registerResultCache(resultCache);
+        }
+        scheduler = new FanOutScheduler(maxConcurrentCalls, maxConcurrentCallsPerQuery, virtualThreads);
+        writeThrottle = new WriteThrottle(writeRampUpRate, writeMaxRetries);
+        int planCacheSize = queryPlanCacheSize;
+        queryPlans = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FirestoreQueryPlan> eldest) {
+                return size() > planCacheSize;
+            }
+        });
         LogManager.logTrace(LogConstants.CTX_CONNECTOR, "Firestore ExecutionFactory Started");
     }
 
+    /**
+     * Removes the snapshot listeners of the replicas and shuts down the threads the factory started.
+     */
+    @Override
+    public void stop() {
+        replicas.values().forEach(CollectionReplica::close);
+        replicas.clear();
+        if (scheduler != null) scheduler.shutdown();
+        if (writeThrottle != null) writeThrottle.shutdown();
+        super.stop();
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, "Firestore ExecutionFactory Stopped");
+    }
+
     @Override
     public ResultSetExecution createResultSetExecution(QueryExpression command, ExecutionContext executionContext, RuntimeMetadata metadata, FirestoreConnection connectionFactory) {
-        return new FirestoreSelectExecution((Select) command, connectionFactory, whereProcessor);
+        return new FirestoreSelectExecution((Select) command, connectionFactory, this, dataAvailable(executionContext), lane(executionContext));
     }
 
     @Override
     public UpdateExecution createUpdateExecution(Command command, ExecutionContext executionContext, RuntimeMetadata metadata, FirestoreConnection connection) throws TranslatorException {
-        return new FirestoreUpdateExecution((BulkCommand) command, connection, whereProcessor);
+        return new FirestoreUpdateExecution((BulkCommand) command, connection, this, dataAvailable(executionContext), lane(executionContext));
+    }
+
+    /**
+     * @return the callback waking the engine up once a Firestore call completes, or {@code null} when
+     * executions should wait for their calls instead
+     */
+    @Nullable
+    Runnable dataAvailable(ExecutionContext executionContext) {
+        return asynchronousExecution && executionContext != null ? executionContext::dataAvailable : null;
+    }
+
+    FanOutScheduler.Lane lane(ExecutionContext executionContext) {
+        return scheduler.lane(executionContext != null ? executionContext.getRequestId() : null);
+    }
+
+    FanOutScheduler getScheduler() {
+        return scheduler;
+    }
+
+    WriteThrottle getWriteThrottle() {
+        return writeThrottle;
+    }
+
+    WhereProcessor getWhereProcessor() {
+        return whereProcessor;
+    }
+
+    FirestoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registry the meters are published to. Defaults to the global registry, which Spring Boot's actuator
+     * registries are added to.
+     */
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Looks up the compiled plan of the command's shape, compiling it on first use, and collects the
+     * command's literal values to bind into it.
+     */
+    FirestoreQueryPlan getQueryPlan(FirestoreCommand command, List<Object> literals) throws TranslatorException {
+        StringBuilder shape = new StringBuilder(command.getNamedTable().getMetadataObject().getFullName())
+                .append('|').append(String.join(",", command.getFields()))
+                .append('|').append(command.isKeysOnly())
+                .append('|').append(command.getOrderBy())
+                .append('|').append(command.getLimit() != null)
+                .append('|');
+        whereProcessor.describe(command.getWhere(), shape, literals);
+        String key = shape.toString();
+        FirestoreQueryPlan plan = queryPlans.get(key);
+        if (plan == null) {
+            plan = new FirestoreQueryPlan(key, command, whereProcessor, maxDisjuncts, maxParentFanOut);
+            if (queryPlanCacheSize > 0) {
+                queryPlans.put(key, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return the cache of results of tables declaring a CACHE_TTL option, or {@code null} when caching is disabled
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the live replica of a table declaring the REPLICATED option, registering its snapshot
+     * listener on first use. A replica whose listener failed is closed and replaced on the next call.
+     *
+     * @return the replica, or {@code null} if the table isn't replicated
+     */
+    CollectionReplica getReplica(NamedTable table, FirestoreConnection connection) {
+        if (!Boolean.parseBoolean(tableOption(table, REPLICATED))) return null;
+        return replicas.compute(table.getMetadataObject().getFullName(), (name, replica) -> {
+            if (replica != null && replica.isListening()) return replica;
+            String collectionName = nameInSource(table);
+            if (replica == null) {
+                metrics.registerReplica(collectionName, name, replicas);
+            } else {
+                replica.close();
+            }
+            String[] fields = table.getMetadataObject().getColumns().stream()
+                    .map(Column::getNameInSource)
+                    .toArray(String[]::new);
+            return new CollectionReplica(parentIdColumnMetadata(table).isPresent() ?
+                    connection.collectionGroup(collectionName) : connection.collection(collectionName), fields);
+        });
+    }
+
+    /**
+     * @return the replicas registered so far, keyed by full table name
+     */
+    public Map<String, CollectionReplica> getReplicas() {
+        return replicas;
+    }
+
+    void invalidateCache(String collectionName) {
+        if (resultCache != null) {
+            resultCache.invalidate(collectionName);
+        }
+    }
+
+    @TranslatorProperty(display = "Streaming Buffer Size", description = "Initial number of documents per page of a query read without the PAGE_SIZE table option; the page size adapts to the Page Latency Target", advanced = true)
+    public int getStreamingBufferSize() {
+        return streamingBufferSize;
+    }
+
+    public void setStreamingBufferSize(int streamingBufferSize) {
+        this.streamingBufferSize = streamingBufferSize;
+    }
+
+    @TranslatorProperty(display = "Page Latency Target", description = "Page fetch latency in milliseconds that adaptive paging aims for", advanced = true)
+    public long getPageLatencyTarget() {
+        return pageLatencyTarget;
+    }
+
+    public void setPageLatencyTarget(long pageLatencyTarget) {
+        this.pageLatencyTarget = pageLatencyTarget;
+    }
+
+    @TranslatorProperty(display = "Max Disjuncts", description = "Maximum number of queries an OR condition or a long IN list may be expanded into", advanced = true)
+    public int getMaxDisjuncts() {
+        return maxDisjuncts;
+    }
+
+    public void setMaxDisjuncts(int maxDisjuncts) {
+        this.maxDisjuncts = maxDisjuncts;
+    }
+
+    @TranslatorProperty(display = "Max Parallel Queries", description = "Maximum number of queries a single command runs concurrently", advanced = true)
+    public int getMaxParallelQueries() {
+        return maxParallelQueries;
+    }
+
+    public void setMaxParallelQueries(int maxParallelQueries) {
+        this.maxParallelQueries = maxParallelQueries;
+    }
+
+    @TranslatorProperty(display = "Max Parent Fan Out", description = "Largest parentId IN list that is answered by querying each parent's subcollection directly instead of the collection group", advanced = true)
+    public int getMaxParentFanOut() {
+        return maxParentFanOut;
+    }
+
+    public void setMaxParentFanOut(int maxParentFanOut) {
+        this.maxParentFanOut = maxParentFanOut;
+    }
+
+    @TranslatorProperty(display = "Write Batch Size", description = "Number of writes committed per batch, at most 500", advanced = true)
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    @TranslatorProperty(display = "Max In-Flight Batches", description = "Maximum number of write batches committed concurrently by a single command", advanced = true)
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @TranslatorProperty(display = "Write Ramp-Up Rate", description = "Write operations per second a table starts at, growing by half every five minutes of sustained writes; 0 commits without pacing", advanced = true)
+    public double getWriteRampUpRate() {
+        return writeRampUpRate;
+    }
+
+    public void setWriteRampUpRate(double writeRampUpRate) {
+        this.writeRampUpRate = writeRampUpRate;
+    }
+
+    @TranslatorProperty(display = "Write Max Retries", description = "Number of times a write batch failing with RESOURCE_EXHAUSTED, ABORTED or UNAVAILABLE is committed again before it counts as failed", advanced = true)
+    public int getWriteMaxRetries() {
+        return writeMaxRetries;
+    }
+
+    public void setWriteMaxRetries(int writeMaxRetries) {
+        this.writeMaxRetries = writeMaxRetries;
+    }
+
+    @TranslatorProperty(display = "Keyed Update Precondition", description = "When true, updates and deletes addressed by the full key first read which documents exist and write and count only those; by default they are written without a read, a delete counting every key and an update of a missing key failing its batch", advanced = true)
+    public boolean isKeyedUpdatePrecondition() {
+        return keyedUpdatePrecondition;
+    }
+
+    public void setKeyedUpdatePrecondition(boolean keyedUpdatePrecondition) {
+        this.keyedUpdatePrecondition = keyedUpdatePrecondition;
+    }
+
+    @TranslatorProperty(display = "Asynchronous Execution", description = "Release engine threads while Firestore calls are in flight instead of waiting on them", advanced = true)
+    public boolean isAsynchronousExecution() {
+        return asynchronousExecution;
+    }
+
+    public void setAsynchronousExecution(boolean asynchronousExecution) {
+        this.asynchronousExecution = asynchronousExecution;
+    }
+
+    @TranslatorProperty(display = "Dependent Join Batch Size", description = "Number of independent values of a dependent join bound into one query; batches of parentIds no larger than MaxParentFanOut read each parent's subcollection directly", advanced = true)
+    public int getDependentJoinBatchSize() {
+        return dependentJoinBatchSize;
+    }
+
+    public void setDependentJoinBatchSize(int dependentJoinBatchSize) {
+        this.dependentJoinBatchSize = dependentJoinBatchSize;
+    }
+
+    @TranslatorProperty(display = "Point Lookup Batch Size", description = "Number of documents read by one batched get when a condition pins the document keys", advanced = true)
+    public int getPointLookupBatchSize() {
+        return pointLookupBatchSize;
+    }
+
+    public void setPointLookupBatchSize(int pointLookupBatchSize) {
+        this.pointLookupBatchSize = pointLookupBatchSize;
+    }
+
+    @TranslatorProperty(display = "Max Concurrent Calls", description = "Maximum number of Firestore calls awaiting their first response across all queries", advanced = true)
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    @TranslatorProperty(display = "Max Concurrent Calls Per Query", description = "Maximum number of Firestore calls of a single request awaiting their first response", advanced = true)
+    public int getMaxConcurrentCallsPerQuery() {
+        return maxConcurrentCallsPerQuery;
+    }
+
+    public void setMaxConcurrentCallsPerQuery(int maxConcurrentCallsPerQuery) {
+        this.maxConcurrentCallsPerQuery = maxConcurrentCallsPerQuery;
+    }
+
+    @TranslatorProperty(display = "Virtual Threads", description = "Start Firestore calls on virtual threads when the runtime supports them", advanced = true)
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    @TranslatorProperty(display = "Result Cache Size", description = "Maximum number of cached query results, 0 disables the cache", advanced = true)
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+    }
+
+    @TranslatorProperty(display = "Result Cache Max Rows", description = "Largest result, in rows, that is kept in the result cache", advanced = true)
+    public int getResultCacheMaxRows() {
+        return resultCacheMaxRows;
+    }
+
+    public void setResultCacheMaxRows(int resultCacheMaxRows) {
+        this.resultCacheMaxRows = resultCacheMaxRows;
+    }
+
+    @TranslatorProperty(display = "Result Cache Total Rows", description = "Rows held by all the cached results together; the least recently used results are evicted beyond it", advanced = true)
+    public long getResultCacheTotalRows() {
+        return resultCacheTotalRows;
+    }
+
+    public void setResultCacheTotalRows(long resultCacheTotalRows) {
+        this.resultCacheTotalRows = resultCacheTotalRows;
+    }
+
+    @TranslatorProperty(display = "Query Plan Cache Size", description = "Maximum number of compiled query plans kept for reuse, 0 disables the cache", advanced = true)
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
     }
 
     @Override
@@ -84,6 +438,11 @@ public class FirestoreExecutionFactory extends ExecutionFactory<ConnectionFactor
         return true;
     }
 
+    @Override
+    public boolean supportsOrCriteria() {
+        return true;
+    }
+
     @Override
     public boolean supportsLikeCriteria() {
         return true;
@@ -99,6 +458,41 @@ public class FirestoreExecutionFactory extends ExecutionFactory<ConnectionFactor
         return true;
     }
 
+    @Override
+    public boolean supportsAggregatesCount() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesCountStar() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesSum() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesAvg() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesMin() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesMax() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDependentJoins() {
+        return true;
+    }
+
     @Override
     public boolean isSourceRequired() {
         return false;
@@ -113,4 +507,9 @@ public class FirestoreExecutionFactory extends ExecutionFactory<ConnectionFactor
     public boolean supportsBulkUpdate() {
         return true;
     }
+
+    @Override
+    public boolean supportsUpsert() {
+        return true;
+    }
 }
@@ -0,0 +1,368 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.translator.appenders.WhereProcessor;
+import com.teiid.firestore.translator.appenders.WhereProcessor.FilterStep;
+import com.teiid.firestore.translator.appenders.WhereProcessor.ParentIdRangeStep;
+import com.teiid.firestore.translator.appenders.WhereProcessor.QueryStep;
+import com.teiid.firestore.translator.common.FirestoreCommand;
+import org.teiid.language.Condition;
+import org.teiid.language.Literal;
+import org.teiid.language.MetadataReference;
+import org.teiid.language.NamedTable;
+import org.teiid.language.OrderBy;
+import org.teiid.language.SortSpecification;
+import org.teiid.metadata.Column;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static com.google.cloud.firestore.FieldPath.documentId;
+import static com.google.cloud.firestore.Query.Direction.ASCENDING;
+import static com.google.cloud.firestore.Query.Direction.DESCENDING;
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * Everything about a command that depends only on its shape: routing to the root collection, a single
+ * subcollection or the collection group, the pushed predicates and ordering compiled into query steps,
+ * the cursor fields and the table options. Plans are immutable and shared by all executions of the same parameterized
+ * statement, which only bind their literal values.
+ * <p>
+ * Key lookups, the disjunction branches of a fan-out, the parentId range and the parentId filter of a
+ * collection group are compiled into literal slots as well, so an execution only walks its condition once
+ * to collect the literals and to find its plan.
+ */
+class FirestoreQueryPlan {
+    private static final QueryStep NO_STEP = (query, literals) -> query;
+
+    private final String key;
+    private final String collectionName;
+    private final String parentCollectionName;
+    private final String[] filteredFields;
+    private final String[] selectedFields;
+    private final boolean fanOut;
+    private final KeyReferences keyReferences;
+    private final FirestoreQueryPlan[] disjunctPlans;
+    private final int[][] disjunctSlots;
+    private final FilterStep[] disjunctMatches;
+    private final FilterStep[] disjunctCandidates;
+    private final ParentIdRangeStep parentIdRange;
+    private final FilterStep collectionGroupFilter;
+    private final QueryStep pushedWhere;
+    private final QueryStep pushedOrderBy;
+    private final FieldPath[] cursorFields;
+    private final Integer parentIdEqualitySlot;
+    private final boolean parentIdFilter;
+    private final boolean sortedInMemory;
+    private final OrderBy runOrderBy;
+    private final Integer pageSize;
+    private final boolean adaptivePaging;
+    private final Long cacheTtl;
+
+    /**
+     * @param key the shape of the command the plan is cached by
+     */
+    FirestoreQueryPlan(String key, FirestoreCommand command, WhereProcessor whereProcessor, int maxDisjuncts, int maxParentFanOut) throws TranslatorException {
+        this.key = key;
+        NamedTable namedTable = command.getNamedTable();
+        Condition where = command.getWhere();
+        OrderBy orderBy = command.getOrderBy();
+        Optional<Column> parentIdColumn = parentIdColumnMetadata(namedTable);
+        this.collectionName = nameInSource(namedTable);
+        this.parentCollectionName = parentIdColumn.map(column -> parentCollectionName(column)).orElse(null);
+        this.filteredFields = command.getFilteredFields();
+        this.fanOut = where != null && whereProcessor.requiresFanOut(where, maxParentFanOut);
+        this.pushedWhere = where == null || fanOut ? NO_STEP : whereProcessor.compile(where);
+        this.parentIdEqualitySlot = where == null || fanOut ? null : whereProcessor.getParentIdEqualitySlot(where);
+        this.parentIdFilter = where != null && whereProcessor.hasParentIdPredicate(where);
+        boolean parentIdOrdering = orderBy != null && orderBy.getSortSpecifications().stream()
+                .anyMatch(sortSpecification -> nameInSource((MetadataReference) sortSpecification.getExpression()).endsWith(PARENT_ID_SUFFIX));
+        boolean collectionGroup = parentCollectionName != null && parentIdEqualitySlot == null;
+        boolean filteredCollectionGroup = collectionGroup && where != null && !fanOut;
+        boolean fieldRange = filteredCollectionGroup && !whereProcessor.getRangeFields(where).isEmpty();
+        // Firestore can't order by a field while narrowing by the __name__ range of the parentIds, nor by the
+        // document path while ranging over another field, so a limited ORDER BY keeps the top rows in memory;
+        // without a limit the ORDER BY is pushed and the parentIds are filtered as the documents stream in
+        this.sortedInMemory = filteredCollectionGroup && orderBy != null && command.getLimit() != null &&
+                (parentIdOrdering ? fieldRange : parentIdFilter && !fieldRange);
+        this.keyReferences = KeyReferences.compile(whereProcessor, namedTable, where);
+        if (fanOut) {
+            List<Condition> disjuncts = whereProcessor.disjuncts(where, maxDisjuncts, maxParentFanOut);
+            List<Literal> literals = whereProcessor.getLiterals(where);
+            // every branch projects the fields of the whole condition, which the match filters of the
+            // other branches read to recognize documents they return as well
+            FirestoreCommand branchCommand = command.withProjectedFields(whereProcessor.getFields(where));
+            this.disjunctPlans = new FirestoreQueryPlan[disjuncts.size()];
+            this.disjunctSlots = new int[disjuncts.size()][];
+            this.disjunctMatches = new FilterStep[disjuncts.size()];
+            this.disjunctCandidates = new FilterStep[disjuncts.size()];
+            for (int i = 0; i < disjuncts.size(); i++) {
+                Condition disjunct = disjuncts.get(i);
+                disjunctPlans[i] = new FirestoreQueryPlan(key + '|' + i, branchCommand.withWhere(disjunct), whereProcessor, maxDisjuncts, maxParentFanOut);
+                disjunctSlots[i] = whereProcessor.getLiterals(disjunct).stream().mapToInt(literal -> slotOf(literals, literal)).toArray();
+                disjunctMatches[i] = whereProcessor.compileMatch(disjunct, true);
+                disjunctCandidates[i] = whereProcessor.compileMatch(disjunct, false);
+            }
+        } else {
+            this.disjunctPlans = null;
+            this.disjunctSlots = null;
+            this.disjunctMatches = null;
+            this.disjunctCandidates = null;
+        }
+        this.collectionGroupFilter = filteredCollectionGroup && parentIdFilter ? whereProcessor.compileCollectionGroupFilter(where) : null;
+        List<String> orderFields = new ArrayList<>();
+        List<Query.Direction> directions = new ArrayList<>();
+        OrderBy runOrderBy = null;
+        if (orderBy != null && !sortedInMemory) {
+            List<SortSpecification> sortSpecifications = orderBy.getSortSpecifications();
+            for (int i = 0; i < sortSpecifications.size(); i++) {
+                String field = nameInSource((MetadataReference) sortSpecifications.get(i).getExpression());
+                Query.Direction direction = sortSpecifications.get(i).getOrdering() == SortSpecification.Ordering.DESC ? DESCENDING : ASCENDING;
+                if (field.endsWith(PARENT_ID_SUFFIX)) {
+                    if (!collectionGroup) continue;
+                    // the documents of a collection group are ordered by their path, which starts with the parentId
+                    orderFields.add(documentId().toString());
+                    directions.add(direction);
+                    List<SortSpecification> following = sortSpecifications.subList(i + 1, sortSpecifications.size());
+                    if (!following.isEmpty() && !isDocumentIdOrdering(following.get(0), direction)) {
+                        runOrderBy = new OrderBy(new ArrayList<>(sortSpecifications.subList(0, i + 1)));
+                    }
+                    break;
+                }
+                orderFields.add(field);
+                directions.add(direction);
+            }
+        } else if (where != null && !fanOut) {
+            whereProcessor.getRangeFields(where).stream().findFirst().ifPresent(field -> {
+                orderFields.add(field);
+                directions.add(ASCENDING);
+            });
+        }
+        this.runOrderBy = runOrderBy;
+        boolean orderedByDocumentId = !orderFields.isEmpty() && orderFields.get(0).equals(documentId().toString());
+        this.parentIdRange = filteredCollectionGroup && (orderBy == null || sortedInMemory || orderedByDocumentId) ?
+                whereProcessor.compileParentIdRange(where, collectionName) : null;
+        this.pushedOrderBy = compileOrdering(orderFields, directions);
+        this.cursorFields = cursorFields(orderFields);
+        Set<String> selectedFields = new LinkedHashSet<>(Arrays.asList(filteredFields));
+        orderFields.stream().filter(field -> !field.equals(documentId().toString())).forEach(selectedFields::add);
+        if (sortedInMemory || runOrderBy != null) {
+            orderBy.getSortSpecifications().stream()
+                    .map(sortSpecification -> nameInSource((MetadataReference) sortSpecification.getExpression()))
+                    .filter(field -> !field.endsWith(PARENT_ID_SUFFIX) && !field.equals(documentId().toString()))
+                    .forEach(selectedFields::add);
+        }
+        this.selectedFields = selectedFields.toArray(new String[0]);
+        String pageSize = tableOption(namedTable, PAGE_SIZE);
+        this.pageSize = pageSize != null ? Integer.valueOf(pageSize) : null;
+        this.adaptivePaging = Boolean.parseBoolean(tableOption(namedTable, ADAPTIVE_PAGING));
+        String cacheTtl = tableOption(namedTable, CACHE_TTL);
+        this.cacheTtl = cacheTtl != null ? Long.valueOf(cacheTtl) : null;
+    }
+
+    /**
+     * Compiles the ordering the query is paged by: the ORDER BY, or the range field Firestore orders by
+     * implicitly when there is none, followed by the document id in the direction of the last field as
+     * Firestore does implicitly. The ordering is made explicit so pages can continue from cursor values.
+     * Ordering by parentId is skipped in a single subcollection, which shares one parentId, and becomes the
+     * document id in a collection group, ordering the documents by their path.
+     */
+    private static QueryStep compileOrdering(List<String> fields, List<Query.Direction> directions) {
+        QueryStep step = NO_STEP;
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            Query.Direction direction = directions.get(i);
+            QueryStep previous = step;
+            step = (query, literals) -> previous.apply(query, literals).orderBy(field, direction);
+        }
+        if (fields.contains(documentId().toString())) return step;
+        Query.Direction lastDirection = directions.isEmpty() ? ASCENDING : directions.get(directions.size() - 1);
+        QueryStep ordered = step;
+        return (query, literals) -> ordered.apply(query, literals).orderBy(documentId(), lastDirection);
+    }
+
+    private static boolean isDocumentIdOrdering(SortSpecification sortSpecification, Query.Direction direction) {
+        return nameInSource((MetadataReference) sortSpecification.getExpression()).equals(documentId().toString()) &&
+                (sortSpecification.getOrdering() == SortSpecification.Ordering.DESC) == (direction == DESCENDING);
+    }
+
+    /**
+     * Finds the slot of a literal of the condition, which the disjuncts share with it, by identity as
+     * equal literals may occupy several slots.
+     */
+    private static int slotOf(List<Literal> literals, Literal literal) {
+        for (int slot = 0; slot < literals.size(); slot++) {
+            if (literals.get(slot) == literal) return slot;
+        }
+        throw new IllegalStateException("Literal " + literal + " is not part of the condition");
+    }
+
+    private static FieldPath[] cursorFields(List<String> fields) {
+        List<FieldPath> cursorFields = new ArrayList<>();
+        for (String field : fields) {
+            cursorFields.add(field.equals(documentId().toString()) ? documentId() : FieldPath.of(field.split("\\.")));
+        }
+        if (!cursorFields.contains(documentId())) cursorFields.add(documentId());
+        return cursorFields.toArray(new FieldPath[0]);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * @return the parent collection of a subcollection table, or {@code null} for a root collection
+     */
+    @Nullable
+    String getParentCollectionName() {
+        return parentCollectionName;
+    }
+
+    String[] getFilteredFields() {
+        return filteredFields;
+    }
+
+    /**
+     * @return the fields a query projects: the filtered fields and the fields it is ordered by, which its
+     * page cursors are built from
+     */
+    String[] getSelectedFields() {
+        return selectedFields;
+    }
+
+    FieldPath[] getCursorFields() {
+        return cursorFields;
+    }
+
+    boolean isFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @return the references addressed by a condition pinning the whole key, or {@code null} if the
+     * documents must be queried
+     */
+    @Nullable
+    List<DocumentReference> getKeyReferences(FirestoreConnection connection, Object[] literals) {
+        return keyReferences != null ? keyReferences.resolve(connection, literals) : null;
+    }
+
+    /**
+     * @return the number of queries a fan-out condition runs, one per conjunction
+     */
+    int getDisjunctCount() {
+        return disjunctPlans != null ? disjunctPlans.length : 0;
+    }
+
+    FirestoreQueryPlan getDisjunctPlan(int index) {
+        return disjunctPlans[index];
+    }
+
+    /**
+     * @return the literal values of the disjunct, taken from those of the whole condition
+     */
+    Object[] bindDisjunct(int index, Object[] literals) {
+        int[] slots = disjunctSlots[index];
+        Object[] disjunctLiterals = new Object[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            disjunctLiterals[i] = literals[slots[i]];
+        }
+        return disjunctLiterals;
+    }
+
+    /**
+     * @param disjunctLiterals the literal values bound by {@link #bindDisjunct(int, Object[])}
+     * @return a filter accepting only documents the query of the disjunct certainly returns
+     */
+    Predicate<DocumentSnapshot> getDisjunctMatch(int index, Object[] disjunctLiterals) throws TranslatorException {
+        return disjunctMatches[index].bind(disjunctLiterals);
+    }
+
+    /**
+     * @param disjunctLiterals the literal values bound by {@link #bindDisjunct(int, Object[])}
+     * @return a filter rejecting only documents the query of the disjunct certainly doesn't return
+     */
+    Predicate<DocumentSnapshot> getDisjunctCandidate(int index, Object[] disjunctLiterals) throws TranslatorException {
+        return disjunctCandidates[index].bind(disjunctLiterals);
+    }
+
+    /**
+     * Narrows a collection group query to the parentId range of the condition, when it is ordered by
+     * document id and no other field is ranged.
+     */
+    Query appendParentIdRange(Query query, Object[] literals, CollectionReference parentCollection) throws TranslatorException {
+        return parentIdRange != null ? parentIdRange.apply(query, literals, parentCollection) : query;
+    }
+
+    /**
+     * @return the parentId predicates of a collection group condition, which Firestore can't evaluate
+     */
+    Predicate<DocumentSnapshot> getCollectionGroupFilter(Object[] literals) throws TranslatorException {
+        return collectionGroupFilter != null ? collectionGroupFilter.bind(literals) : document -> true;
+    }
+
+    Query appendWhere(Query query, Object[] literals) throws TranslatorException {
+        return pushedWhere.apply(query, literals);
+    }
+
+    Query appendOrderBy(Query query) throws TranslatorException {
+        return pushedOrderBy.apply(query, null);
+    }
+
+    @Nullable
+    String getParentIdEqualityValue(Object[] literals) {
+        return parentIdEqualitySlot != null ? (String) literals[parentIdEqualitySlot] : null;
+    }
+
+    boolean hasParentIdFilter() {
+        return parentIdFilter;
+    }
+
+    /**
+     * @return whether a limited collection group query is read in an order other than its ORDER BY, which
+     * it keeps its top rows in: narrowed to its parentId range, or ordered by parentId and ranging over a field
+     */
+    boolean isSortedInMemory() {
+        return sortedInMemory;
+    }
+
+    /**
+     * @return the leading sort keys up to the parentId of a collection group query whose ORDER BY goes on
+     * past the document path, which Firestore returns it in, so runs of documents equal on them are sorted
+     * in memory; {@code null} when the query is returned in order
+     */
+    @Nullable
+    OrderBy getRunOrderBy() {
+        return runOrderBy;
+    }
+
+    @Nullable
+    Integer getPageSize() {
+        return pageSize;
+    }
+
+    boolean isAdaptivePaging() {
+        return adaptivePaging;
+    }
+
+    @Nullable
+    Long getCacheTtl() {
+        return cacheTtl;
+    }
+}
@@ -19,57 +19,172 @@
 package com.teiid.firestore.translator;
 
 
-import com.google.cloud.firestore.FieldPath;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.teiid.firestore.connection.FirestoreConnection;
 import com.teiid.firestore.translator.appenders.WhereProcessor;
+import com.teiid.firestore.translator.common.DocumentComparator;
+import com.teiid.firestore.translator.common.DocumentStream;
+import com.teiid.firestore.translator.common.DocumentStreamSupplier;
+import com.teiid.firestore.translator.common.FanOutScheduler;
 import com.teiid.firestore.translator.common.FirestoreCommand;
+import com.teiid.firestore.translator.common.MergedDocumentStream;
+import com.teiid.firestore.translator.common.RowMaterializer;
+import com.teiid.firestore.translator.replica.CollectionReplica;
+import com.teiid.firestore.translator.replica.ReplicaColumns;
+import io.micrometer.core.instrument.Timer;
+import org.teiid.language.AggregateFunction;
 import org.teiid.language.ColumnReference;
+import org.teiid.language.Command;
+import org.teiid.language.Condition;
+import org.teiid.language.Limit;
 import org.teiid.language.NamedTable;
+import org.teiid.language.OrderBy;
 import org.teiid.language.Select;
 import org.teiid.logging.LogConstants;
 import org.teiid.logging.LogManager;
 import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ExecutionContext;
 import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.ReusableExecution;
 import org.teiid.translator.TranslatorException;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import static com.teiid.firestore.translator.common.TranslatorUtils.*;
 
 
 /**
- * Represents the execution of a command.
+ * Represents the execution of a command. The execution is reusable, so a dependent join runs every batch
+ * of independent values through the same instance.
  */
-public class FirestoreSelectExecution implements ResultSetExecution {
-    private FirestoreExecution firestoreExecution;
-    private Iterator<QueryDocumentSnapshot> results;
+public class FirestoreSelectExecution implements ResultSetExecution, ReusableExecution<FirestoreConnection> {
+    private static final int PREFETCHED_BATCHES = 2;
+
+    private Select command;
+    private FirestoreConnection firestoreConnection;
+    private FirestoreExecutionFactory executionFactory;
+    private FirestoreCommand firestoreCommand;
+    private FirestoreAggregation aggregation;
+    private Runnable dataAvailable;
+    private FanOutScheduler.Lane lane;
+    private DocumentStream results;
+    private Iterator<List<Object>> replicaRows;
+    private RowMaterializer materializer;
     private String[] fields;
+    private String tableName;
+    private Timer.Sample querySample;
+    private boolean executed;
+    private long rowsReturned;
+
+    FirestoreSelectExecution(Select command, FirestoreConnection firestoreConnection, FirestoreExecutionFactory executionFactory,
+                             @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) {
+        this.executionFactory = executionFactory;
+        prepare(command, firestoreConnection, dataAvailable, lane);
+    }
+
+    private void prepare(Select command, FirestoreConnection firestoreConnection, @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) {
+        this.command = command;
+        this.firestoreConnection = firestoreConnection;
+        this.dataAvailable = dataAvailable;
+        this.lane = lane;
+        this.tableName = nameInSource((NamedTable) command.getFrom().get(0));
+        this.rowsReturned = 0;
+        if (!isAggregate(command)) {
+            this.fields = fields(command);
+            this.materializer = new RowMaterializer(command.getDerivedColumns());
+            this.firestoreCommand = new FirestoreCommand(
+                    (NamedTable) command.getFrom().get(0),
+                    command.getWhere(),
+                    command.getLimit(),
+                    command.getOrderBy(),
+                    fields);
+        }
+    }
+
+    @Override
+    public void reset(Command command, ExecutionContext executionContext, FirestoreConnection connection) {
+        close();
+        prepare((Select) command, connection, executionFactory.dataAvailable(executionContext), executionFactory.lane(executionContext));
+    }
 
-    FirestoreSelectExecution(Select command, FirestoreConnection firestoreConnection, WhereProcessor whereProcessor) {
-        this.fields = fields(command);
-        FirestoreCommand firestoreCommand = new FirestoreCommand(
-                (NamedTable) command.getFrom().get(0),
-                command.getWhere(),
-                command.getLimit(),
-                command.getOrderBy(),
-                fields);
-        this.firestoreExecution = new FirestoreExecution(firestoreConnection, whereProcessor, firestoreCommand);
+    @Override
+    public void dispose() {
+        close();
     }
 
     @Override
     public void execute() throws TranslatorException {
+        querySample = executionFactory.getMetrics().startQuery();
+        executed = true;
         try {
-            results = firestoreExecution.execute().iterator();
-        } catch (ExecutionException | InterruptedException e) {
-            throw new TranslatorException(e);
+            executeQuery();
+        } catch (TranslatorException e) {
+            executionFactory.getMetrics().recordError(tableName, "query", e);
+            throw e;
+        }
+    }
+
+    private void executeQuery() throws TranslatorException {
+        if (isAggregate(command)) {
+            aggregation = new FirestoreAggregation(command, firestoreConnection, executionFactory, dataAvailable, lane);
+            return;
+        }
+        Map<String, List<? extends List<?>>> dependentValues = command.getDependentValues();
+        boolean dependent = dependentValues != null && !dependentValues.isEmpty();
+        CollectionReplica replica = executionFactory.getReplica((NamedTable) command.getFrom().get(0), firestoreConnection);
+        ReplicaColumns columns = replica != null ? replica.getColumns() : null;
+        if (columns != null) {
+            Condition where = dependent ? bindDependentValues(dependentValues, Integer.MAX_VALUE).get(0) : command.getWhere();
+            replicaRows = columns.query(where, command.getOrderBy(), command.getLimit(), fields);
+        } else if (dependent) {
+            results = executeDependentJoin(dependentValues);
+        } else {
+            results = new FirestoreExecution(firestoreConnection, executionFactory, firestoreCommand, dataAvailable, lane).execute();
         }
     }
 
+    /**
+     * Runs the independent values of a dependent join in batches of DependentJoinBatchSize, each a query
+     * of its own; a batch of parentIds reads their subcollections concurrently. The next batch is fetched
+     * while the current one is drained. With an ORDER BY the batches are merged in order, opened
+     * PREFETCHED_BATCHES at a time, each holding no more than its current page once it has returned its first
+     * documents. Batches of overlapping conditions skip the documents an earlier batch certainly matches or
+     * that were already returned, as {@link MergedDocumentStream} tells; under a row limit, which may cut a
+     * batch short, by the paths returned.
+     */
+    private DocumentStream executeDependentJoin(Map<String, List<? extends List<?>>> dependentValues) throws TranslatorException {
+        WhereProcessor whereProcessor = executionFactory.getWhereProcessor();
+        Limit limit = command.getLimit();
+        List<Condition> conditions = bindDependentValues(dependentValues, executionFactory.getDependentJoinBatchSize());
+        FirestoreCommand batchCommand = conditions.size() > 1 ?
+                firestoreCommand.withProjectedFields(whereProcessor.getFields(command.getWhere())) : firestoreCommand;
+        List<DocumentStreamSupplier> batches = new ArrayList<>(conditions.size());
+        List<Predicate<DocumentSnapshot>> matches = new ArrayList<>(conditions.size());
+        List<Predicate<DocumentSnapshot>> candidates = new ArrayList<>(conditions.size());
+        for (Condition where : conditions) {
+            batches.add(() -> new FirestoreExecution(firestoreConnection, executionFactory, batchCommand.withWhere(where), dataAvailable, lane).execute());
+            matches.add(limit != null ? document -> false : whereProcessor.match(where, true));
+            candidates.add(limit != null ? document -> true : whereProcessor.match(where, false));
+        }
+        OrderBy orderBy = command.getOrderBy();
+        DocumentStream documents = new MergedDocumentStream(batches, matches, candidates,
+                orderBy != null ? new DocumentComparator(orderBy) : null, PREFETCHED_BATCHES);
+        return limit != null ? documents.limit(limit.getRowLimit()) : documents;
+    }
+
+    private List<Condition> bindDependentValues(Map<String, List<? extends List<?>>> dependentValues, int batchSize) throws TranslatorException {
+        return executionFactory.getWhereProcessor().bindDependentValues(command.getWhere(), dependentValues, batchSize);
+    }
+
+    private static boolean isAggregate(Select command) {
+        return command.getDerivedColumns().stream().anyMatch(derivedColumn -> derivedColumn.getExpression() instanceof AggregateFunction);
+    }
+
     private String[] fields(Select command) {
         return command.getDerivedColumns().stream()
                 .map(derivedColumn -> nameInSource((ColumnReference) derivedColumn.getExpression()))
@@ -77,30 +192,53 @@ public class FirestoreSelectExecution implements ResultSetExecution {
     }
 
     @Override
-    public List<?> next() throws DataNotAvailableException {
-        if (results != null && results.hasNext()) {
-            QueryDocumentSnapshot next = results.next();
-            return Stream.of(fields)
-                    .map(field -> {
-                        if (field.equals(FieldPath.documentId().toString())) {
-                            return next.getId();
-                        } else if (field.endsWith(PARENT_ID_SUFFIX)) {
-                            return parentId(next);
-                        } else {
-                            Object o = next.get(field);
-                            return o instanceof List ? ((List) o).toArray() : o;
-                        }
-                    })
-                    .collect(Collectors.toList());
+    public List<?> next() throws TranslatorException, DataNotAvailableException {
+        List<?> row;
+        try {
+            row = nextRow();
+        } catch (TranslatorException e) {
+            executionFactory.getMetrics().recordError(tableName, "query", e);
+            throw e;
         }
-        return null;
+        if (querySample != null) {
+            executionFactory.getMetrics().recordFirstRow(querySample, tableName);
+            querySample = null;
+        }
+        if (row != null) rowsReturned++;
+        return row;
+    }
+
+    private List<?> nextRow() throws TranslatorException {
+        if (aggregation != null) {
+            // the single aggregate row is all a pushed limit can apply to
+            return command.getLimit() != null && command.getLimit().getRowLimit() == 0 ? null : aggregation.next();
+        }
+        if (replicaRows != null) {
+            return replicaRows.hasNext() ? materializer.convert(replicaRows.next()) : null;
+        }
+        DocumentSnapshot next = results != null ? results.next() : null;
+        return next != null ? materializer.materialize(next) : null;
     }
 
     @Override
     public void close() {
         LogManager.logDetail(LogConstants.CTX_CONNECTOR, "Closing the connection");
         fields = null;
-        results = null;
+        materializer = null;
+        replicaRows = null;
+        if (aggregation != null) {
+            aggregation.close();
+            aggregation = null;
+        }
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+        querySample = null;
+        if (executed) {
+            executionFactory.getMetrics().recordRows(tableName, rowsReturned);
+            executed = false;
+        }
     }
 
     @Override
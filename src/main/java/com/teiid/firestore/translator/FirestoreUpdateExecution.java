@@ -1,148 +1,220 @@
 package com.teiid.firestore.translator;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
 import com.google.cloud.firestore.WriteBatch;
-import com.google.cloud.firestore.WriteResult;
 import com.teiid.firestore.connection.FirestoreConnection;
-import com.teiid.firestore.translator.appenders.WhereProcessor;
+import com.teiid.firestore.translator.common.BatchGetDocumentStream;
+import com.teiid.firestore.translator.common.BatchWriter;
+import com.teiid.firestore.translator.common.DocumentStream;
+import com.teiid.firestore.translator.common.FanOutScheduler;
 import com.teiid.firestore.translator.common.FirestoreCommand;
 import com.teiid.firestore.translator.common.TranslatorUtils;
 import org.teiid.language.*;
-import org.teiid.metadata.Column;
 import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorBatchException;
 import org.teiid.translator.TranslatorException;
 import org.teiid.translator.UpdateExecution;
 
+import javax.annotation.Nullable;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-import static com.google.cloud.firestore.FieldPath.documentId;
 import static com.teiid.firestore.translator.common.TranslatorUtils.*;
 
 public class FirestoreUpdateExecution implements UpdateExecution {
+    private static final String UPSERT_REPLACE = "REPLACE";
+
     private BulkCommand command;
     private FirestoreConnection connection;
-    private WhereProcessor whereProcessor;
+    private FirestoreExecutionFactory executionFactory;
+    private Runnable dataAvailable;
+    private FanOutScheduler.Lane lane;
     private List<Integer> updateCounts;
+    private BatchWriter writer;
+    private WriteSource writes;
+    private boolean completed;
 
-    FirestoreUpdateExecution(BulkCommand command, FirestoreConnection connection, WhereProcessor whereProcessor) {
+    FirestoreUpdateExecution(BulkCommand command, FirestoreConnection connection, FirestoreExecutionFactory executionFactory,
+                              @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) {
         this.command = command;
         this.connection = connection;
-        this.whereProcessor = whereProcessor;
+        this.executionFactory = executionFactory;
+        this.dataAvailable = dataAvailable;
+        this.lane = lane;
         updateCounts = new ArrayList<>();
     }
 
+    /**
+     * Starts the writes. Without a {@code dataAvailable} callback they are completed here, otherwise
+     * {@link #getUpdateCounts()} advances them while the engine thread is free in between.
+     */
     @Override
     public void execute() throws TranslatorException {
-        WriteBatch batch = connection.batch();
-        List<WriteResult> writeResults = getWriteResults(batch);
-        if (command instanceof Insert) {
-            writeResults.forEach(result -> updateCounts.add(1));
-        } else {
-            updateCounts.add(writeResults.size());
+        writer = new BatchWriter(connection, executionFactory.getWriteBatchSize(), executionFactory.getMaxInFlightBatches(),
+                executionFactory.getMetrics(), nameInSource(table()), executionFactory.getWriteThrottle(), dataAvailable, lane);
+        try {
+            writes = prepareWrites();
+        } catch (TranslatorException e) {
+            updateCounts.add(Statement.EXECUTE_FAILED);
+            throw e;
+        }
+        if (dataAvailable == null) {
+            complete();
         }
     }
 
-    private List<WriteResult> getWriteResults(WriteBatch batch) throws TranslatorException {
-        try {
+    private void complete() throws TranslatorException {
+        int[] writeCounts = getWriteCounts();
+        completed = true;
+        if (command instanceof Insert) {
+            Arrays.stream(writeCounts).forEach(updateCounts::add);
+        } else {
+            updateCounts.add((int) Arrays.stream(writeCounts).filter(count -> count == 1).count());
+        }
+        Throwable failure = writer.getFailure();
+        if (failure != null) {
             if (command instanceof Insert) {
-                executeInsert((Insert) command, batch);
-            } else if (command instanceof Delete) {
-                executeDelete((Delete) command, batch);
-            } else if (command instanceof Update) {
-                executeUpdate((Update) command, batch);
+                throw new TranslatorBatchException(new SQLException(failure.getMessage(), failure), writeCounts);
             }
-            ApiFuture<List<WriteResult>> commit = batch.commit();
-            return commit.get();
-        } catch (InterruptedException | ExecutionException e) {
-            updateCounts.add(-3);
-            throw new TranslatorException(e.getMessage());
+            throw new TranslatorException(failure.getMessage());
         }
     }
 
-    private void executeInsert(Insert insert, WriteBatch batch) throws TranslatorException {
-        String collectionName = nameInSource(insert.getTable());
-        Optional<Column> parentIdColumn = parentIdColumnMetadata(insert.getTable());
-        if (parentIdColumn.isPresent()) {
-            insertToSubCollection(collectionName, parentCollectionName(parentIdColumn.get()), insert, batch);
-        } else {
-            insertToRootCollection(connection.collection(collectionName), insert, batch);
+    /**
+     * Drops the cached results of the table once the writes are over, failed ones included as the batches
+     * before the failure may have committed. A {@link DataNotAvailableException} only pauses the writes.
+     */
+    private int[] getWriteCounts() throws TranslatorException {
+        int[] writeCounts;
+        try {
+            writeCounts = executeWrites();
+        } catch (TranslatorException e) {
+            executionFactory.invalidateCache(nameInSource(table()));
+            throw e;
         }
+        executionFactory.invalidateCache(nameInSource(table()));
+        return writeCounts;
     }
 
-    private void insertToSubCollection(String collectionName, String parentCollectionName, Insert insert, WriteBatch batch) throws TranslatorException {
-        List<ColumnReference> columns = insert.getColumns();
-        int indexOfParentIdField = IntStream.range(0, columns.size())
-                .filter(index -> nameInSource(columns.get(index)).endsWith(PARENT_ID_SUFFIX))
-                .findFirst()
-                .orElseThrow(() -> new TranslatorException("ParentId field value is missing"));
-        columns.remove(indexOfParentIdField);
-        if (insert.getParameterValues() == null) {
-            String parentId = (String) literal(((ExpressionValueSource) insert.getValueSource()).getValues().remove(indexOfParentIdField));
-            CollectionReference subCollection = connection.collection(parentCollectionName).document(parentId).collection(collectionName);
-            setDocument(subCollection, columns, batch, getSingleInsertParams(insert));
-        } else {
-            insert.getParameterValues().forEachRemaining(parameters -> {
-                String parentId = (String) parameters.remove(indexOfParentIdField);
-                CollectionReference subCollection = connection.collection(parentCollectionName).document(parentId).collection(collectionName);
-                setDocument(subCollection, columns, batch, parameters);
-            });
+    /**
+     * Resumes where a {@link DataNotAvailableException} left off: the writer keeps the operation it was
+     * given and the source its position.
+     */
+    private int[] executeWrites() throws TranslatorException {
+        try {
+            for (Consumer<WriteBatch> operation = writes.next(); operation != null; operation = writes.next()) {
+                writer.add(operation);
+            }
+        } catch (TranslatorException e) {
+            writes.close();
+            writer.abort();
+            updateCounts.add(Statement.EXECUTE_FAILED);
+            throw e;
         }
+        return writer.finish();
     }
 
-    private void insertToRootCollection(CollectionReference collection, Insert insert, WriteBatch batch) {
-        List<ColumnReference> columns = insert.getColumns();
-        if (insert.getParameterValues() == null) {
-            setDocument(collection, columns, batch, getSingleInsertParams(insert));
-        } else {
-            insert.getParameterValues().forEachRemaining(parameters -> setDocument(collection, columns, batch, parameters));
+    private WriteSource prepareWrites() throws TranslatorException {
+        if (command instanceof Insert) return prepareInsert((Insert) command);
+        if (command instanceof Delete) return prepareDelete((Delete) command);
+        return prepareUpdate((Update) command);
+    }
+
+    private NamedTable table() {
+        if (command instanceof Insert) return ((Insert) command).getTable();
+        if (command instanceof Delete) return ((Delete) command).getTable();
+        return ((Update) command).getTable();
+    }
+
+    /**
+     * An UPSERT is a blind set of each row, with no read before the write. By default it merges the inserted
+     * fields into an existing document; with the table option UPSERT_MODE 'REPLACE' it overwrites the document.
+     */
+    private WriteSource prepareInsert(Insert insert) throws TranslatorException {
+        Iterator<? extends List<?>> rows = insert.getParameterValues();
+        if (rows == null) {
+            rows = List.of(getSingleInsertParams(insert)).iterator();
         }
+        InsertTemplate template = new InsertTemplate(connection, insert.getTable(), insert.getColumns());
+        SetOptions options = insert.isUpsert() && !UPSERT_REPLACE.equalsIgnoreCase(tableOption(insert.getTable(), UPSERT_MODE)) ?
+                template.mergeInsertedFields() : null;
+        return WriteSource.of(rows, row -> {
+            DocumentReference reference = template.reference(row);
+            Map<String, Object> fields = template.fields(row);
+            return options != null ? batch -> batch.set(reference, fields, options) : batch -> batch.set(reference, fields);
+        });
     }
 
-    private void executeDelete(Delete delete, WriteBatch batch) throws ExecutionException, InterruptedException, TranslatorException {
-        FirestoreExecution firestoreExecution = new FirestoreExecution(connection, whereProcessor, new FirestoreCommand(delete.getTable(), delete.getWhere()));
-        firestoreExecution.execute().forEach(snapshot -> batch.delete(snapshot.getReference()));
+    private WriteSource prepareDelete(Delete delete) throws TranslatorException {
+        Function<DocumentReference, Consumer<WriteBatch>> operation = reference -> batch -> batch.delete(reference);
+        FirestoreExecution matching = matching(delete.getTable(), delete.getWhere());
+        List<DocumentReference> references = matching.resolveKeyReferences();
+        if (references == null) {
+            return writeMatching(matching, operation);
+        } else if (executionFactory.isKeyedUpdatePrecondition()) {
+            return writeExisting(references, operation);
+        }
+        return writeAll(references, operation);
     }
 
-    private void executeUpdate(Update update, WriteBatch batch) throws TranslatorException, ExecutionException, InterruptedException {
-        FirestoreExecution firestoreExecution = new FirestoreExecution(connection, whereProcessor, new FirestoreCommand(update.getTable(), update.getWhere()));
+    /**
+     * Updates never create documents: Firestore fails the batch of an update whose document doesn't exist,
+     * unless the keyed update precondition has filtered the missing keys out first.
+     */
+    private WriteSource prepareUpdate(Update update) throws TranslatorException {
         Map<String, Object> changes = toMap(update.getChanges());
-        firestoreExecution.execute().forEach(snapshot -> batch.update(snapshot.getReference(), changes));
+        FirestoreExecution matching = matching(update.getTable(), update.getWhere());
+        List<DocumentReference> references = matching.resolveKeyReferences();
+        if (references == null) {
+            return writeMatching(matching, reference -> batch -> batch.update(reference, changes));
+        } else if (executionFactory.isKeyedUpdatePrecondition()) {
+            return writeExisting(references, reference -> batch -> batch.update(reference, changes));
+        }
+        return writeAll(references, reference -> batch -> batch.update(reference, changes));
     }
 
-    private List<?> getSingleInsertParams(Insert insert) {
-        return ((ExpressionValueSource) insert.getValueSource()).getValues().stream()
-                .map(v -> v instanceof Literal ? literal(v) :
-                        ((Array) v).getExpressions().stream().map(TranslatorUtils::literal).collect(Collectors.toList()))
-                .collect(Collectors.toList());
+    /**
+     * Selects the references of the documents matching the condition. Writes to documents addressed by
+     * their whole key need no query, which {@link FirestoreExecution#resolveKeyReferences()} tells.
+     */
+    private FirestoreExecution matching(NamedTable table, Condition where) {
+        return new FirestoreExecution(connection, executionFactory, new FirestoreCommand(table, where), dataAvailable, lane);
     }
 
-    private void setDocument(CollectionReference collection, List<ColumnReference> columns, WriteBatch batch, List<?> parameters) {
-        Map<String, Object> fieldValues = getFieldValues(columns, parameters);
-        Optional<String> documentId = Optional.ofNullable((String) fieldValues.remove(documentId().toString()));
-        batch.set(documentId.map(collection::document).orElseGet(collection::document), fieldValues);
+    private WriteSource writeAll(List<DocumentReference> references, Function<DocumentReference, Consumer<WriteBatch>> operation) {
+        return WriteSource.of(references.iterator(), operation);
     }
 
-    private Map<String, Object> getFieldValues(List<ColumnReference> columns, List<?> values) {
-        return IntStream.range(0, columns.size())
-                .mapToObj(index -> {
-                    String fieldName = nameInSource(columns.get(index));
-                    Object value = values.get(index);
-                    return addField(fieldName, value);
-                })
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    /**
+     * Writes only the addressed documents that exist, checked with batched gets reading no fields, so
+     * missing keys are neither written nor counted and don't fail the batch of the others.
+     */
+    private WriteSource writeExisting(List<DocumentReference> references, Function<DocumentReference, Consumer<WriteBatch>> operation) {
+        DocumentStream existing = executionFactory.getMetrics().countLookups(nameInSource(table()),
+                new BatchGetDocumentStream(connection, references, new String[0], executionFactory.getPointLookupBatchSize(), dataAvailable, lane));
+        return WriteSource.of(existing, operation);
     }
 
-    private AbstractMap.SimpleEntry<String, Object> addField(String fieldName, Object value) {
-        String[] fieldParts = fieldName.split("\\.", 2);
-        if (fieldParts.length > 1) {
-            AbstractMap.SimpleEntry<String, Object> nestedEntry = addField(fieldParts[1], value);
-            return new AbstractMap.SimpleEntry<>(fieldParts[0], Map.of(nestedEntry.getKey(), nestedEntry.getValue()));
-        }
-        return new AbstractMap.SimpleEntry<>(fieldName, value);
+    /**
+     * Feeds the references of the matching documents into the writer as they are read. Commits of the
+     * earlier pages overlap with reading the later ones, and only the pages and batches in flight are held.
+     */
+    private WriteSource writeMatching(FirestoreExecution matching, Function<DocumentReference, Consumer<WriteBatch>> operation) throws TranslatorException {
+        DocumentStream documents = matching.execute();
+        return WriteSource.of(documents, operation);
+    }
+
+    private List<?> getSingleInsertParams(Insert insert) {
+        return ((ExpressionValueSource) insert.getValueSource()).getValues().stream()
+                .map(v -> v instanceof Literal ? literal(v) :
+                        ((Array) v).getExpressions().stream().map(TranslatorUtils::literal).collect(Collectors.toList()))
+                .collect(Collectors.toList());
     }
 
     private Map<String, Object> toMap(List<SetClause> changes) {
@@ -152,17 +224,68 @@ public class FirestoreUpdateExecution implements UpdateExecution {
     }
 
     @Override
-    public int[] getUpdateCounts() throws DataNotAvailableException {
+    public int[] getUpdateCounts() throws DataNotAvailableException, TranslatorException {
+        if (!completed) {
+            complete();
+        }
         return updateCounts.stream().mapToInt(Integer::intValue).toArray();
     }
 
     @Override
     public void close() {
         updateCounts = null;
+        if (writes != null) {
+            writes.close();
+            writes = null;
+        }
     }
 
     @Override
     public void cancel() {
         close();
     }
+
+    /**
+     * Pull-based source of write operations that keeps its position between calls, returning
+     * {@code null} once every operation was produced.
+     */
+    private interface WriteSource {
+
+        @Nullable
+        Consumer<WriteBatch> next() throws TranslatorException;
+
+        void close();
+
+        static <T> WriteSource of(Iterator<? extends T> values, Function<? super T, Consumer<WriteBatch>> operation) {
+            return new WriteSource() {
+                @Override
+                public Consumer<WriteBatch> next() {
+                    return values.hasNext() ? operation.apply(values.next()) : null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        static WriteSource of(DocumentStream documents, Function<DocumentReference, Consumer<WriteBatch>> operation) {
+            return new WriteSource() {
+                @Override
+                public Consumer<WriteBatch> next() throws TranslatorException {
+                    DocumentSnapshot snapshot = documents.next();
+                    if (snapshot == null) {
+                        documents.close();
+                        return null;
+                    }
+                    return operation.apply(snapshot.getReference());
+                }
+
+                @Override
+                public void close() {
+                    documents.close();
+                }
+            };
+        }
+    }
 }
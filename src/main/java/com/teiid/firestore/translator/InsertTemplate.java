@@ -0,0 +1,119 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.SetOptions;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.NamedTable;
+import org.teiid.metadata.Column;
+import org.teiid.translator.TranslatorException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.cloud.firestore.FieldPath.documentId;
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * The column list of an INSERT compiled once for all of its rows: the field paths are split up front,
+ * columns sharing a prefix are merged into one nested map, and the subcollection of every parent is
+ * resolved only once.
+ */
+class InsertTemplate {
+    private final String[][] paths;
+    private final int documentIdIndex;
+    private final int parentIdIndex;
+    private final int fieldCount;
+    private final String collectionName;
+    private final CollectionReference collection;
+    private final Map<String, CollectionReference> subCollections = new HashMap<>();
+
+    /**
+     * @throws TranslatorException if a subcollection row has no parentId column, or a column's field is
+     * nested in another column's field
+     */
+    InsertTemplate(FirestoreConnection connection, NamedTable table, List<ColumnReference> columns) throws TranslatorException {
+        this.collectionName = nameInSource(table);
+        this.paths = new String[columns.size()][];
+        int documentIdIndex = -1;
+        int parentIdIndex = -1;
+        int fieldCount = 0;
+        for (int index = 0; index < columns.size(); index++) {
+            String fieldName = nameInSource(columns.get(index));
+            if (fieldName.equals(documentId().toString())) {
+                documentIdIndex = index;
+            } else if (fieldName.endsWith(PARENT_ID_SUFFIX)) {
+                parentIdIndex = index;
+            } else {
+                paths[index] = fieldName.split("\\.");
+                fieldCount++;
+                for (int other = 0; other < index; other++) {
+                    if (paths[other] != null && nested(paths[other], paths[index])) {
+                        throw new TranslatorException("Columns " + nameInSource(columns.get(other)) + " and " + fieldName + " write the same field");
+                    }
+                }
+            }
+        }
+        this.documentIdIndex = documentIdIndex;
+        this.parentIdIndex = parentIdIndex;
+        this.fieldCount = fieldCount;
+        Optional<Column> parentIdColumn = parentIdColumnMetadata(table);
+        if (parentIdColumn.isEmpty()) {
+            this.collection = connection.collection(collectionName);
+        } else if (parentIdIndex < 0) {
+            throw new TranslatorException("ParentId field value is missing");
+        } else {
+            this.collection = connection.collection(parentCollectionName(parentIdColumn.get()));
+        }
+    }
+
+    /**
+     * @return whether one path is the other or a prefix of it, so that both can't be written at once
+     */
+    private static boolean nested(String[] left, String[] right) {
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            if (!left[i].equals(right[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the document the row is written to, with a generated id if the row has none
+     */
+    DocumentReference reference(List<?> row) {
+        CollectionReference target = parentIdIndex < 0 ? collection :
+                subCollections.computeIfAbsent((String) row.get(parentIdIndex), parentId -> collection.document(parentId).collection(collectionName));
+        String id = documentIdIndex < 0 ? null : (String) row.get(documentIdIndex);
+        return id != null ? target.document(id) : target.document();
+    }
+
+    /**
+     * @return options that make a set overwrite only the inserted fields and leave the others in place
+     */
+    SetOptions mergeInsertedFields() {
+        List<FieldPath> fieldPaths = new ArrayList<>(fieldCount);
+        for (String[] path : paths) {
+            if (path != null) fieldPaths.add(FieldPath.of(path));
+        }
+        return SetOptions.mergeFieldPaths(fieldPaths);
+    }
+
+    Map<String, Object> fields(List<?> row) {
+        Map<String, Object> fields = new HashMap<>(fieldCount * 4 / 3 + 1);
+        for (int index = 0; index < paths.length; index++) {
+            String[] path = paths[index];
+            if (path == null) continue;
+            if (path.length == 1) {
+                fields.put(path[0], row.get(index));
+            } else {
+                putNested(fields, path, row.get(index));
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,74 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.translator.appenders.WhereProcessor;
+import org.teiid.language.Condition;
+import org.teiid.language.NamedTable;
+import org.teiid.metadata.Column;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.google.cloud.firestore.FieldPath.documentId;
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * Resolves the documents addressed by a condition that pins the whole key by equality or IN: the document
+ * id and, for a subcollection, the parentId. Such documents are read or written without running a query.
+ * The key predicates are compiled into literal slots once per plan, and only bound per execution.
+ */
+class KeyReferences {
+    private final String collectionName;
+    private final String parentCollectionName;
+    private final List<int[]> idSlots;
+    private final List<int[]> parentIdSlots;
+
+    private KeyReferences(String collectionName, @Nullable String parentCollectionName, List<int[]> idSlots, @Nullable List<int[]> parentIdSlots) {
+        this.collectionName = collectionName;
+        this.parentCollectionName = parentCollectionName;
+        this.idSlots = idSlots;
+        this.parentIdSlots = parentIdSlots;
+    }
+
+    /**
+     * @return the compiled key predicates, or {@code null} if the condition doesn't consist of key predicates only
+     */
+    @Nullable
+    static KeyReferences compile(WhereProcessor whereProcessor, NamedTable table, @Nullable Condition where) {
+        if (where == null) return null;
+        Map<String, List<int[]>> pinnedSlots = whereProcessor.getPinnedSlots(where);
+        if (pinnedSlots == null) return null;
+        List<int[]> idSlots = pinnedSlots.get(documentId().toString());
+        if (idSlots == null) return null;
+        String collectionName = nameInSource(table);
+        Optional<Column> parentIdColumn = parentIdColumnMetadata(table);
+        if (parentIdColumn.isEmpty()) {
+            return pinnedSlots.size() == 1 ? new KeyReferences(collectionName, null, idSlots, null) : null;
+        }
+        List<int[]> parentIdSlots = pinnedSlots.get(parentIdColumn.get().getNameInSource());
+        if (parentIdSlots == null || pinnedSlots.size() != 2) return null;
+        return new KeyReferences(collectionName, parentCollectionName(parentIdColumn.get()), idSlots, parentIdSlots);
+    }
+
+    /**
+     * @return the references addressed by the bound literal values
+     */
+    List<DocumentReference> resolve(FirestoreConnection connection, Object[] literals) {
+        Set<Object> ids = WhereProcessor.pinnedValues(idSlots, literals);
+        if (parentCollectionName == null) {
+            CollectionReference collection = connection.collection(collectionName);
+            return ids.stream().map(id -> collection.document((String) id)).collect(Collectors.toList());
+        }
+        CollectionReference parentCollection = connection.collection(parentCollectionName);
+        return WhereProcessor.pinnedValues(parentIdSlots, literals).stream()
+                .map(parentId -> parentCollection.document((String) parentId).collection(collectionName))
+                .flatMap(subCollection -> ids.stream().map(id -> subCollection.document((String) id)))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,22 +1,34 @@
 package com.teiid.firestore.translator.appenders;
 
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Query;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.teiid.firestore.translator.common.TranslatorUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.teiid.language.*;
 import org.teiid.translator.TranslatorException;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.Map;
+import java.math.BigDecimal;
+import java.util.*;
 import java.util.function.BiFunction;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static com.google.cloud.firestore.FieldPath.documentId;
 import static com.teiid.firestore.translator.common.TranslatorUtils.*;
 import static org.teiid.language.Comparison.Operator.*;
 
 public class WhereProcessor {
+    private static final String MAX_CHARACTER = "\uf8ff";
+    private static final String ARRAY_CONTAINS_ANY = "array_contains_any";
+    private static final int MAX_DISJUNCTION_VALUES = 10;
+    private static final FilterStep ALL_DOCUMENTS = literals -> document -> true;
+    private static final FilterStep NO_DOCUMENTS = literals -> document -> false;
+    private static final RangeStep UNBOUNDED = literals -> ParentIdRange.UNBOUNDED;
     private static final Map<Comparison.Operator, BiFunction<Query, Pair<String, Object>, Query>> queryComparisons = Map.of(
             EQ, (q, p) -> q.whereEqualTo(p.getLeft(), p.getRight()),
             LT, (q, p) -> q.whereLessThan(p.getLeft(), p.getRight()),
@@ -64,43 +76,882 @@ public class WhereProcessor {
             if (isParentId(leftExpression)) return query;
             String rightExpression = rightValue(like);
             return query.whereGreaterThanOrEqualTo(leftExpression, rightExpression)
-                    .whereLessThanOrEqualTo(leftExpression, rightExpression + "\uf8ff");
+                    .whereLessThanOrEqualTo(leftExpression, rightExpression + MAX_CHARACTER);
         }
         throw new TranslatorException("Unsupported where clause");
     }
 
-    public void filterCollectionGroup(List<QueryDocumentSnapshot> documents, Condition where) throws TranslatorException {
+    /**
+     * Appends the normalized shape of the condition to the key, with every literal replaced by {@code ?},
+     * and collects the literal values in the order of their slots in {@link #compile(Condition)}.
+     */
+    public void describe(Condition where, StringBuilder shape, List<Object> literals) {
         if (where instanceof AndOr) {
             AndOr andOr = (AndOr) where;
-            switch (andOr.getOperator()) {
-                case AND:
-                    filterCollectionGroup(documents, andOr.getLeftCondition());
-                    filterCollectionGroup(documents, andOr.getRightCondition());
-                    return;
-                case OR:
-                    throw new TranslatorException("OR is not supported");
+            shape.append('(');
+            describe(andOr.getLeftCondition(), shape, literals);
+            shape.append(' ').append(andOr.getOperator()).append(' ');
+            describe(andOr.getRightCondition(), shape, literals);
+            shape.append(')');
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            describe(comparison.getLeftExpression(), shape, literals);
+            shape.append(' ').append(comparison.getOperator()).append(' ');
+            describe(comparison.getRightExpression(), shape, literals);
+        } else if (where instanceof In) {
+            In in = (In) where;
+            describe(in.getLeftExpression(), shape, literals);
+            shape.append(in.isNegated() ? " NOT IN (" : " IN (");
+            in.getRightExpressions().forEach(value -> describe(value, shape, literals));
+            shape.append(')');
+        } else if (where instanceof Like) {
+            Like like = (Like) where;
+            describe(like.getLeftExpression(), shape, literals);
+            shape.append(like.isNegated() ? " NOT LIKE " : " LIKE ");
+            describe(like.getRightExpression(), shape, literals);
+        } else {
+            shape.append(where);
+        }
+    }
+
+    private void describe(Expression expression, StringBuilder shape, List<Object> literals) {
+        if (expression instanceof Literal) {
+            shape.append('?');
+            literals.add(literal(expression));
+        } else if (expression instanceof Function) {
+            shape.append(((Function) expression).getName()).append('(');
+            ((Function) expression).getParameters().forEach(parameter -> describe(parameter, shape, literals));
+            shape.append(')');
+        } else if (expression instanceof Array) {
+            shape.append('[');
+            ((Array) expression).getExpressions().forEach(element -> describe(element, shape, literals));
+            shape.append(']');
+        } else if (expression instanceof MetadataReference) {
+            shape.append(fieldName(expression)).append(' ');
+        } else {
+            shape.append(expression);
+        }
+    }
+
+    /**
+     * @return the literals of the condition in the order of their slots, as collected by
+     * {@link #describe(Condition, StringBuilder, List)}
+     */
+    public List<Literal> getLiterals(Condition where) {
+        List<Literal> literals = new ArrayList<>();
+        collectLiterals(where, literals);
+        return literals;
+    }
+
+    private void collectLiterals(Condition where, List<Literal> literals) {
+        if (where instanceof AndOr) {
+            collectLiterals(((AndOr) where).getLeftCondition(), literals);
+            collectLiterals(((AndOr) where).getRightCondition(), literals);
+        } else if (where instanceof Comparison) {
+            collectLiterals(((Comparison) where).getLeftExpression(), literals);
+            collectLiterals(((Comparison) where).getRightExpression(), literals);
+        } else if (where instanceof In) {
+            collectLiterals(((In) where).getLeftExpression(), literals);
+            ((In) where).getRightExpressions().forEach(value -> collectLiterals(value, literals));
+        } else if (where instanceof Like) {
+            collectLiterals(((Like) where).getLeftExpression(), literals);
+            collectLiterals(((Like) where).getRightExpression(), literals);
+        }
+    }
+
+    private void collectLiterals(Expression expression, List<Literal> literals) {
+        if (expression instanceof Literal) {
+            literals.add((Literal) expression);
+        } else if (expression instanceof Function) {
+            ((Function) expression).getParameters().forEach(parameter -> collectLiterals(parameter, literals));
+        } else if (expression instanceof Array) {
+            ((Array) expression).getExpressions().forEach(element -> collectLiterals(element, literals));
+        }
+    }
+
+    private int countLiterals(Condition where) {
+        if (where instanceof AndOr) {
+            return countLiterals(((AndOr) where).getLeftCondition()) + countLiterals(((AndOr) where).getRightCondition());
+        } else if (where instanceof Comparison) {
+            return countLiterals(((Comparison) where).getLeftExpression()) + countLiterals(((Comparison) where).getRightExpression());
+        } else if (where instanceof In) {
+            return ((In) where).getRightExpressions().size();
+        } else if (where instanceof Like) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private int countLiterals(Expression expression) {
+        if (expression instanceof Literal) return 1;
+        if (expression instanceof Function) {
+            return ((Function) expression).getParameters().stream().mapToInt(this::countLiterals).sum();
+        }
+        if (expression instanceof Array) {
+            return ((Array) expression).getExpressions().stream().mapToInt(this::countLiterals).sum();
+        }
+        return 0;
+    }
+
+    /**
+     * Compiles the pushed predicates of a condition without OR into a step that appends them to a query,
+     * reading each value from the literal slots collected by {@link #describe(Condition, StringBuilder, List)}.
+     * ParentId predicates are skipped, as in {@link #appendWhere(Query, Condition)}.
+     */
+    public QueryStep compile(Condition where) throws TranslatorException {
+        return compile(where, new int[1]);
+    }
+
+    private QueryStep compile(Condition where, int[] nextSlot) throws TranslatorException {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            if (andOr.getOperator() == AndOr.Operator.OR) throw new TranslatorException("OR is not supported");
+            QueryStep left = compile(andOr.getLeftCondition(), nextSlot);
+            QueryStep right = compile(andOr.getRightCondition(), nextSlot);
+            return (query, literals) -> right.apply(left.apply(query, literals), literals);
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            int leftSlot = nextSlot[0];
+            int rightSlot = leftSlot + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            if (leftExpression instanceof Function) {
+                return compileFunctionComparison((Function) leftExpression, leftSlot, rightSlot);
             }
+            String field = fieldName(leftExpression);
+            if (isParentId(field)) return (query, literals) -> query;
+            BiFunction<Query, Pair<String, Object>, Query> queryComparison = queryComparisons.get(comparison.getOperator());
+            if (queryComparison == null) throw new TranslatorException("Unsupported comparison " + comparison.getOperator());
+            return (query, literals) -> queryComparison.apply(query, Pair.of(field, literals[rightSlot]));
+        } else if (where instanceof In) {
+            In in = (In) where;
+            int firstSlot = nextSlot[0];
+            int size = in.getRightExpressions().size();
+            nextSlot[0] += size;
+            String field = fieldName(in.getLeftExpression());
+            if (isParentId(field)) return (query, literals) -> query;
+            return (query, literals) -> query.whereIn(field, Arrays.asList(literals).subList(firstSlot, firstSlot + size));
+        } else if (where instanceof Like) {
+            Like like = (Like) where;
+            int slot = nextSlot[0]++;
+            String field = fieldName(like.getLeftExpression());
+            if (isParentId(field)) return (query, literals) -> query;
+            return (query, literals) -> {
+                String prefix = prefix((String) literals[slot]);
+                return query.whereGreaterThanOrEqualTo(field, prefix).whereLessThanOrEqualTo(field, prefix + MAX_CHARACTER);
+            };
+        }
+        throw new TranslatorException("Unsupported where clause");
+    }
+
+    private QueryStep compileFunctionComparison(Function function, int firstSlot, int expectedSlot) throws TranslatorException {
+        String field = fieldName(function.getParameters().get(0));
+        QueryStep step;
+        if (function.getName().equals("array_contains")) {
+            step = (query, literals) -> query.whereArrayContains(field, literals[firstSlot]);
+        } else if (function.getName().equals(ARRAY_CONTAINS_ANY)) {
+            int size = countLiterals(function.getParameters().get(1));
+            step = (query, literals) -> query.whereArrayContainsAny(field, Arrays.asList(literals).subList(firstSlot, firstSlot + size));
+        } else {
+            throw new TranslatorException("Unknown function");
+        }
+        return (query, literals) -> {
+            if (!(Boolean) literals[expectedSlot])
+                throw new TranslatorException("Array-contains/array-contains-any cannot be negative");
+            return step.apply(query, literals);
+        };
+    }
+
+    /**
+     * @return the literal slot of the parentId equality of a conjunction, or {@code null} if there is none
+     */
+    @Nullable
+    public Integer getParentIdEqualitySlot(Condition where) {
+        return parentIdEqualitySlot(where, new int[1]);
+    }
+
+    private Integer parentIdEqualitySlot(Condition where, int[] nextSlot) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            Integer left = parentIdEqualitySlot(andOr.getLeftCondition(), nextSlot);
+            Integer right = parentIdEqualitySlot(andOr.getRightCondition(), nextSlot);
+            return andOr.getOperator() != AndOr.Operator.AND ? null : left != null ? left : right;
         } else if (where instanceof Comparison) {
             Comparison comparison = (Comparison) where;
             Expression leftExpression = comparison.getLeftExpression();
-            if (leftExpression instanceof Function || isNotParentId(leftExpression)) return;
-            String rightExpression = (String) rightValue(comparison);
-            Comparison.Operator operator = valueOf(comparison.getOperator().name());
-            documents.removeIf(document -> !documentIdComparisons.get(operator).apply(parentId(document), rightExpression));
+            int rightSlot = nextSlot[0] + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            return !(leftExpression instanceof Function) && isParentId(fieldName(leftExpression)) && comparison.getOperator() == EQ ? rightSlot : null;
         } else if (where instanceof In) {
+            nextSlot[0] += ((In) where).getRightExpressions().size();
+        } else if (where instanceof Like) {
+            nextSlot[0]++;
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the condition has to be split into several queries: it contains OR, an IN or
+     * array_contains_any list longer than the {@value #MAX_DISJUNCTION_VALUES} values Firestore accepts,
+     * or a parentId IN list short enough to query each parent's subcollection directly.
+     */
+    public boolean requiresFanOut(Condition where, int maxParentFanOut) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return andOr.getOperator() == AndOr.Operator.OR ||
+                    requiresFanOut(andOr.getLeftCondition(), maxParentFanOut) || requiresFanOut(andOr.getRightCondition(), maxParentFanOut);
+        }
+        return isOversizedIn(where) || isOversizedArrayContainsAny(where) || isParentIdFanOut(where, maxParentFanOut);
+    }
+
+    /**
+     * Rewrites the condition into disjunctive normal form. Each returned condition is a conjunction
+     * that Firestore can run as a single query; oversized IN and array_contains_any lists are split
+     * into one disjunct per chunk of values, and short parentId IN lists into one equality per parent.
+     */
+    public List<Condition> disjuncts(Condition where, int maxDisjuncts, int maxParentFanOut) throws TranslatorException {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            List<Condition> left = disjuncts(andOr.getLeftCondition(), maxDisjuncts, maxParentFanOut);
+            List<Condition> right = disjuncts(andOr.getRightCondition(), maxDisjuncts, maxParentFanOut);
+            List<Condition> disjuncts = new ArrayList<>();
+            if (andOr.getOperator() == AndOr.Operator.OR) {
+                disjuncts.addAll(left);
+                disjuncts.addAll(right);
+            } else {
+                for (Condition leftConjunct : left) {
+                    for (Condition rightConjunct : right) {
+                        disjuncts.add(new AndOr(leftConjunct, rightConjunct, AndOr.Operator.AND));
+                    }
+                }
+            }
+            if (disjuncts.size() > maxDisjuncts)
+                throw new TranslatorException("Condition expands to more than " + maxDisjuncts + " queries");
+            return disjuncts;
+        }
+        List<Condition> disjuncts = Collections.singletonList(where);
+        if (isParentIdFanOut(where, maxParentFanOut)) {
             In in = (In) where;
-            if (isNotParentId(in.getLeftExpression())) return;
-            List<Object> rightExpression = rightValue(in);
-            documents.removeIf(document -> !rightExpression.contains(parentId(document)));
+            disjuncts = in.getRightExpressions().stream()
+                    .map(parentId -> new Comparison(in.getLeftExpression(), parentId, EQ))
+                    .collect(Collectors.toList());
+        } else if (isOversizedIn(where)) {
+            In in = (In) where;
+            disjuncts = chunks(in.getRightExpressions()).stream()
+                    .map(chunk -> new In(in.getLeftExpression(), chunk, in.isNegated()))
+                    .collect(Collectors.toList());
+        } else if (isOversizedArrayContainsAny(where)) {
+            Comparison comparison = (Comparison) where;
+            Function function = (Function) comparison.getLeftExpression();
+            Array values = (Array) function.getParameters().get(1);
+            disjuncts = chunks(values.getExpressions()).stream()
+                    .map(chunk -> new Function(function.getName(),
+                            List.of(function.getParameters().get(0), new Array(values.getBaseType(), chunk)),
+                            function.getType()))
+                    .map(chunkFunction -> new Comparison(chunkFunction, comparison.getRightExpression(), comparison.getOperator()))
+                    .collect(Collectors.toList());
+        }
+        if (disjuncts.size() > maxDisjuncts)
+            throw new TranslatorException("Condition expands to more than " + maxDisjuncts + " queries");
+        return disjuncts;
+    }
+
+    /**
+     * Binds the values of a dependent join, sent by Teiid as parameterized comparisons, into one condition per
+     * batch of {@code batchSize} value rows. A single equality becomes an IN list of the batch values, so a
+     * batch of parentIds fans out to their subcollections; several parameterized comparisons become a
+     * disjunction with one conjunction per row.
+     *
+     * @return the condition unchanged if it has no dependent values
+     */
+    public List<Condition> bindDependentValues(Condition where, Map<String, List<? extends List<?>>> dependentValues, int batchSize) throws TranslatorException {
+        List<Comparison> dependentComparisons = new ArrayList<>();
+        collectDependentComparisons(where, dependentComparisons);
+        if (dependentComparisons.isEmpty()) return Collections.singletonList(where);
+        Set<String> dependentValueIds = dependentComparisons.stream()
+                .map(comparison -> ((Parameter) comparison.getRightExpression()).getDependentValueId())
+                .collect(Collectors.toSet());
+        if (dependentValueIds.size() > 1) throw new TranslatorException("Only one dependent value set per query is supported");
+        List<? extends List<?>> rows = dependentValues.get(dependentValueIds.iterator().next());
+        if (rows == null) throw new TranslatorException("Missing dependent values " + dependentValueIds);
+        List<Condition> batches = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += Math.max(1, batchSize)) {
+            List<? extends List<?>> batch = rows.subList(from, Math.min(rows.size(), from + Math.max(1, batchSize)));
+            batches.add(dependentComparisons.size() == 1 && dependentComparisons.get(0).getOperator() == EQ ?
+                    bindIn(where, dependentComparisons.get(0), batch) :
+                    bindRows(where, batch));
+        }
+        return batches;
+    }
+
+    private void collectDependentComparisons(Condition where, List<Comparison> dependentComparisons) {
+        if (where instanceof AndOr) {
+            collectDependentComparisons(((AndOr) where).getLeftCondition(), dependentComparisons);
+            collectDependentComparisons(((AndOr) where).getRightCondition(), dependentComparisons);
+        } else if (where instanceof Comparison && isDependentParameter(((Comparison) where).getRightExpression())) {
+            dependentComparisons.add((Comparison) where);
+        }
+    }
+
+    private boolean isDependentParameter(Expression expression) {
+        return expression instanceof Parameter && ((Parameter) expression).getDependentValueId() != null;
+    }
+
+    private Condition bindIn(Condition where, Comparison comparison, List<? extends List<?>> rows) {
+        Parameter parameter = (Parameter) comparison.getRightExpression();
+        List<Expression> values = rows.stream()
+                .map(row -> row.get(parameter.getValueIndex()))
+                .distinct()
+                .map(value -> new Literal(value, parameter.getType()))
+                .collect(Collectors.toList());
+        return replace(where, comparison, new In(comparison.getLeftExpression(), values, false));
+    }
+
+    private Condition bindRows(Condition where, List<? extends List<?>> rows) {
+        Condition disjunction = null;
+        for (List<?> row : rows) {
+            Condition bound = bind(where, row);
+            disjunction = disjunction == null ? bound : new AndOr(disjunction, bound, AndOr.Operator.OR);
+        }
+        return disjunction;
+    }
+
+    private Condition bind(Condition where, List<?> row) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return new AndOr(bind(andOr.getLeftCondition(), row), bind(andOr.getRightCondition(), row), andOr.getOperator());
+        } else if (where instanceof Comparison && isDependentParameter(((Comparison) where).getRightExpression())) {
+            Comparison comparison = (Comparison) where;
+            Parameter parameter = (Parameter) comparison.getRightExpression();
+            return new Comparison(comparison.getLeftExpression(), new Literal(row.get(parameter.getValueIndex()), parameter.getType()), comparison.getOperator());
+        }
+        return where;
+    }
+
+    private Condition replace(Condition where, Condition target, Condition replacement) {
+        if (where == target) return replacement;
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return new AndOr(replace(andOr.getLeftCondition(), target, replacement), replace(andOr.getRightCondition(), target, replacement), andOr.getOperator());
+        }
+        return where;
+    }
+
+    private boolean isParentIdFanOut(Condition where, int maxParentFanOut) {
+        if (!(where instanceof In)) return false;
+        In in = (In) where;
+        return !in.isNegated() && !isNotParentId(in.getLeftExpression()) && in.getRightExpressions().size() <= maxParentFanOut;
+    }
+
+    private boolean isOversizedIn(Condition where) {
+        if (!(where instanceof In)) return false;
+        In in = (In) where;
+        return !in.isNegated() && isNotParentId(in.getLeftExpression()) && in.getRightExpressions().size() > MAX_DISJUNCTION_VALUES;
+    }
+
+    private boolean isOversizedArrayContainsAny(Condition where) {
+        if (!(where instanceof Comparison) || !(((Comparison) where).getLeftExpression() instanceof Function)) return false;
+        Function function = (Function) ((Comparison) where).getLeftExpression();
+        return function.getName().equals(ARRAY_CONTAINS_ANY) &&
+                ((Array) function.getParameters().get(1)).getExpressions().size() > MAX_DISJUNCTION_VALUES;
+    }
+
+    private List<List<Expression>> chunks(List<Expression> values) {
+        List<List<Expression>> chunks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += MAX_DISJUNCTION_VALUES) {
+            chunks.add(new ArrayList<>(values.subList(from, Math.min(values.size(), from + MAX_DISJUNCTION_VALUES))));
+        }
+        return chunks;
+    }
+
+    /**
+     * Compiles the parentId predicates of a collection group condition into a filter of the documents
+     * read, bound to the literal slots collected by {@link #describe(Condition, StringBuilder, List)}.
+     * Predicates on other fields are pushed to Firestore and pass every document.
+     */
+    public FilterStep compileCollectionGroupFilter(Condition where) throws TranslatorException {
+        return compileCollectionGroupFilter(where, new int[1]);
+    }
+
+    private FilterStep compileCollectionGroupFilter(Condition where, int[] nextSlot) throws TranslatorException {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            FilterStep left = compileCollectionGroupFilter(andOr.getLeftCondition(), nextSlot);
+            FilterStep right = compileCollectionGroupFilter(andOr.getRightCondition(), nextSlot);
+            if (andOr.getOperator() == AndOr.Operator.AND) {
+                return literals -> left.bind(literals).and(right.bind(literals));
+            }
+            return literals -> left.bind(literals).or(right.bind(literals));
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            int rightSlot = nextSlot[0] + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            if (leftExpression instanceof Function || isNotParentId(leftExpression)) return ALL_DOCUMENTS;
+            BiFunction<String, String, Boolean> documentIdComparison = documentIdComparisons.get(comparison.getOperator());
+            if (documentIdComparison == null) throw new TranslatorException("Unsupported comparison " + comparison.getOperator());
+            return literals -> {
+                String value = (String) literals[rightSlot];
+                return document -> documentIdComparison.apply(parentId(document), value);
+            };
+        } else if (where instanceof In) {
+            In in = (In) where;
+            int firstSlot = nextSlot[0];
+            int size = in.getRightExpressions().size();
+            nextSlot[0] += size;
+            if (isNotParentId(in.getLeftExpression())) return ALL_DOCUMENTS;
+            return literals -> {
+                List<Object> values = Arrays.asList(literals).subList(firstSlot, firstSlot + size);
+                return document -> values.contains(parentId(document));
+            };
         } else if (where instanceof Like) {
             Like like = (Like) where;
-            if (isNotParentId(like.getLeftExpression())) return;
-            String rightExpression = rightValue(like);
-            documents.removeIf(document -> {
-                String parentId = parentId(document);
-                return !(rightExpression.compareTo(parentId) <= 0 && parentId.compareTo(rightExpression + "\uf8ff") <= 0);
-            });
+            int slot = nextSlot[0]++;
+            if (isNotParentId(like.getLeftExpression())) return ALL_DOCUMENTS;
+            return literals -> {
+                String prefix = prefix((String) literals[slot]);
+                return document -> {
+                    String parentId = parentId(document);
+                    return prefix.compareTo(parentId) <= 0 && parentId.compareTo(prefix + MAX_CHARACTER) <= 0;
+                };
+            };
         }
+        return ALL_DOCUMENTS;
+    }
+
+    /**
+     * Compiles a condition into a filter of the documents its query returns, so documents returned by one
+     * query of a fan-out can be recognized in the results of the others. Where Firestore's semantics aren't
+     * mirrored exactly, as for values of different types, NaN or document id ranges, whether the query
+     * returns a document is unknown: a {@code certain} filter rejects such a document, accepting only
+     * documents the query certainly returns, and the other one accepts it, rejecting only documents the
+     * query certainly doesn't return. The fields of {@link #getFields(Condition)} must be projected.
+     */
+    public FilterStep compileMatch(Condition where, boolean certain) throws TranslatorException {
+        return compileMatch(where, certain, new int[1]);
+    }
+
+    /**
+     * @return the filter of {@link #compileMatch(Condition, boolean)} bound to the literals of the condition
+     */
+    public Predicate<DocumentSnapshot> match(Condition where, boolean certain) throws TranslatorException {
+        return compileMatch(where, certain).bind(getLiterals(where).stream().map(TranslatorUtils::literal).toArray());
+    }
+
+    private FilterStep compileMatch(Condition where, boolean certain, int[] nextSlot) throws TranslatorException {
+        FilterStep unknown = certain ? NO_DOCUMENTS : ALL_DOCUMENTS;
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            FilterStep left = compileMatch(andOr.getLeftCondition(), certain, nextSlot);
+            FilterStep right = compileMatch(andOr.getRightCondition(), certain, nextSlot);
+            if (andOr.getOperator() == AndOr.Operator.AND) {
+                return literals -> left.bind(literals).and(right.bind(literals));
+            }
+            return literals -> left.bind(literals).or(right.bind(literals));
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            int leftSlot = nextSlot[0];
+            int rightSlot = leftSlot + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            if (leftExpression instanceof Function) {
+                return compileFunctionMatch((Function) leftExpression, certain, leftSlot, rightSlot);
+            }
+            String field = fieldName(leftExpression);
+            Comparison.Operator operator = comparison.getOperator();
+            if (isParentId(field)) {
+                BiFunction<String, String, Boolean> documentIdComparison = documentIdComparisons.get(operator);
+                if (documentIdComparison == null) return unknown;
+                return literals -> {
+                    String value = (String) literals[rightSlot];
+                    return document -> documentIdComparison.apply(parentId(document), value);
+                };
+            }
+            return literals -> {
+                Object expected = literals[rightSlot];
+                return document -> decide(matches(field, fieldValue(document, field), operator, expected), certain);
+            };
+        } else if (where instanceof In) {
+            In in = (In) where;
+            int firstSlot = nextSlot[0];
+            int size = in.getRightExpressions().size();
+            nextSlot[0] += size;
+            if (in.isNegated()) return unknown;
+            String field = fieldName(in.getLeftExpression());
+            return literals -> {
+                List<Object> values = Arrays.asList(literals).subList(firstSlot, firstSlot + size);
+                return document -> {
+                    Object value = fieldValue(document, field);
+                    if (isParentId(field)) return values.contains(value);
+                    return decide(anyOf(values.stream().map(expected -> matches(field, value, EQ, expected))), certain);
+                };
+            };
+        } else if (where instanceof Like) {
+            Like like = (Like) where;
+            int slot = nextSlot[0]++;
+            if (like.isNegated()) return unknown;
+            String field = fieldName(like.getLeftExpression());
+            return literals -> {
+                String prefix = prefix((String) literals[slot]);
+                return document -> {
+                    Object value = fieldValue(document, field);
+                    if (isParentId(field)) {
+                        return prefix.compareTo((String) value) <= 0 && ((String) value).compareTo(prefix + MAX_CHARACTER) <= 0;
+                    }
+                    return decide(allOf(matches(field, value, GE, prefix), matches(field, value, LE, prefix + MAX_CHARACTER)), certain);
+                };
+            };
+        }
+        return unknown;
+    }
+
+    private FilterStep compileFunctionMatch(Function function, boolean certain, int firstSlot, int expectedSlot) {
+        String field = fieldName(function.getParameters().get(0));
+        int size = function.getName().equals(ARRAY_CONTAINS_ANY) ? countLiterals(function.getParameters().get(1)) : 1;
+        return literals -> {
+            if (!Boolean.TRUE.equals(literals[expectedSlot])) return document -> !certain;
+            List<Object> values = Arrays.asList(literals).subList(firstSlot, firstSlot + size);
+            return document -> {
+                Object array = document.get(field);
+                if (!(array instanceof List)) return false;
+                return decide(anyOf(((List<?>) array).stream()
+                        .map(element -> anyOf(values.stream().map(value -> matches(field, element, EQ, value))))), certain);
+            };
+        };
+    }
+
+    /**
+     * @param outcome whether a query returns a document, {@code null} when unknown
+     */
+    private static boolean decide(@Nullable Boolean outcome, boolean certain) {
+        return outcome != null ? outcome : !certain;
+    }
+
+    @Nullable
+    private static Boolean anyOf(Stream<Boolean> outcomes) {
+        Boolean result = false;
+        for (Iterator<Boolean> iterator = outcomes.iterator(); iterator.hasNext(); ) {
+            Boolean outcome = iterator.next();
+            if (Boolean.TRUE.equals(outcome)) return true;
+            if (outcome == null) result = null;
+        }
+        return result;
+    }
+
+    @Nullable
+    private static Boolean allOf(@Nullable Boolean left, @Nullable Boolean right) {
+        if (Boolean.FALSE.equals(left) || Boolean.FALSE.equals(right)) return false;
+        return left == null || right == null ? null : true;
+    }
+
+    /**
+     * Mirrors a pushed comparison of a field. Firestore skips documents missing the field, matches only
+     * values of the same type, compares integers and doubles numerically and strings by their UTF-8 bytes,
+     * which is their code point order. Dates are sent as timestamps of millisecond precision.
+     *
+     * @return whether Firestore matches the value, or {@code null} when that isn't known
+     */
+    @Nullable
+    private static Boolean matches(String field, @Nullable Object value, Comparison.Operator operator, Object expected) {
+        if (!queryComparisons.containsKey(operator)) return null;
+        if (value == null) return false;
+        if (field.equals(documentId().toString())) {
+            // a document id is compared as a path, which isn't known here past equality
+            return value.equals(expected) ? null : false;
+        }
+        Integer comparison = compare(timestamp(value), timestamp(expected));
+        if (comparison == null) return null;
+        switch (operator) {
+            case EQ:
+                return comparison == 0;
+            case LT:
+                return comparison < 0;
+            case LE:
+                return comparison <= 0;
+            case GT:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+        }
+    }
+
+    @Nullable
+    private static Integer compare(Object value, Object expected) {
+        if (isNumber(value) && isNumber(expected)) {
+            if (isNaN(value) || isNaN(expected)) return null;
+            if (isIntegral(value) && isIntegral(expected)) {
+                return Long.compare(((Number) value).longValue(), ((Number) expected).longValue());
+            }
+            if (Double.isInfinite(((Number) value).doubleValue()) || Double.isInfinite(((Number) expected).doubleValue())) {
+                return Double.compare(((Number) value).doubleValue(), ((Number) expected).doubleValue());
+            }
+            return decimal(value).compareTo(decimal(expected));
+        } else if (value instanceof String && expected instanceof String) {
+            return compareCodePoints((String) value, (String) expected);
+        } else if (value instanceof Boolean && expected instanceof Boolean) {
+            return Boolean.compare((Boolean) value, (Boolean) expected);
+        } else if (value instanceof Timestamp && expected instanceof Timestamp) {
+            return ((Timestamp) value).compareTo((Timestamp) expected);
+        }
+        return null;
+    }
+
+    private static Object timestamp(Object value) {
+        return value instanceof Date ? Timestamp.of((Date) value) : value;
+    }
+
+    private static boolean isNumber(Object value) {
+        return isIntegral(value) || value instanceof Double || value instanceof Float;
+    }
+
+    private static boolean isNaN(Object number) {
+        return number instanceof Double && ((Double) number).isNaN() || number instanceof Float && ((Float) number).isNaN();
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static BigDecimal decimal(Object number) {
+        return isIntegral(number) ? BigDecimal.valueOf(((Number) number).longValue()) : new BigDecimal(((Number) number).doubleValue());
+    }
+
+    private static int compareCodePoints(String left, String right) {
+        int i = 0;
+        int j = 0;
+        while (i < left.length() && j < right.length()) {
+            int leftCodePoint = left.codePointAt(i);
+            int rightCodePoint = right.codePointAt(j);
+            if (leftCodePoint != rightCodePoint) return Integer.compare(leftCodePoint, rightCodePoint);
+            i += Character.charCount(leftCodePoint);
+            j += Character.charCount(rightCodePoint);
+        }
+        return Boolean.compare(i < left.length(), j < right.length());
+    }
+
+    /**
+     * @return the document fields the condition refers to, without the document id and parentId
+     */
+    public Set<String> getFields(Condition where) {
+        Set<String> fields = new LinkedHashSet<>();
+        collectFields(where, fields);
+        return fields;
+    }
+
+    private void collectFields(Condition where, Set<String> fields) {
+        Expression leftExpression;
+        if (where instanceof AndOr) {
+            collectFields(((AndOr) where).getLeftCondition(), fields);
+            collectFields(((AndOr) where).getRightCondition(), fields);
+            return;
+        } else if (where instanceof Comparison) {
+            leftExpression = ((Comparison) where).getLeftExpression();
+        } else if (where instanceof In) {
+            leftExpression = ((In) where).getLeftExpression();
+        } else if (where instanceof Like) {
+            leftExpression = ((Like) where).getLeftExpression();
+        } else {
+            return;
+        }
+        if (leftExpression instanceof Function) {
+            leftExpression = ((Function) leftExpression).getParameters().get(0);
+        }
+        if (!(leftExpression instanceof MetadataReference)) return;
+        String field = fieldName(leftExpression);
+        if (!isParentId(field) && !field.equals(documentId().toString())) fields.add(field);
+    }
+
+    /**
+     * Compiles the narrowing of a collection group query to the documents whose parent id may satisfy the
+     * parentId predicates. Children of {@code parent/p} sort after the parent document itself and before
+     * {@code parent/p/collection/\uf8ff}, so a parentId range maps onto a
+     * {@link com.google.cloud.firestore.FieldPath#documentId()} range. The bounds may be wider than the
+     * predicates, which are still applied by {@link #compileCollectionGroupFilter(Condition)}.
+     *
+     * @return {@code null} when nothing can be pushed: Firestore allows range filters on a single field only,
+     * so there is no range when other fields are ranged
+     */
+    @Nullable
+    public ParentIdRangeStep compileParentIdRange(Condition where, String collectionName) throws TranslatorException {
+        if (hasFieldRange(where)) return null;
+        RangeStep rangeStep = compileParentIdRange(where, new int[1]);
+        return (query, literals, parentCollection) -> {
+            ParentIdRange range = rangeStep.bind(literals);
+            if (range.lower != null) {
+                query = query.whereGreaterThan(documentId(), parentCollection.document(range.lower));
+            }
+            if (range.upper != null) {
+                query = range.upperInclusive ?
+                        query.whereLessThan(documentId(), parentCollection.document(range.upper).collection(collectionName).document(MAX_CHARACTER)) :
+                        query.whereLessThan(documentId(), parentCollection.document(range.upper));
+            }
+            return query;
+        };
+    }
+
+    private RangeStep compileParentIdRange(Condition where, int[] nextSlot) throws TranslatorException {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            if (andOr.getOperator() != AndOr.Operator.AND) {
+                nextSlot[0] += countLiterals(where);
+                return UNBOUNDED;
+            }
+            RangeStep left = compileParentIdRange(andOr.getLeftCondition(), nextSlot);
+            RangeStep right = compileParentIdRange(andOr.getRightCondition(), nextSlot);
+            return literals -> left.bind(literals).intersect(right.bind(literals));
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            int rightSlot = nextSlot[0] + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            if (leftExpression instanceof Function || isNotParentId(leftExpression)) return UNBOUNDED;
+            switch (comparison.getOperator()) {
+                case EQ:
+                    return literals -> new ParentIdRange((String) literals[rightSlot], (String) literals[rightSlot], true);
+                case LT:
+                    return literals -> new ParentIdRange(null, (String) literals[rightSlot], false);
+                case LE:
+                    return literals -> new ParentIdRange(null, (String) literals[rightSlot], true);
+                case GT:
+                case GE:
+                    return literals -> new ParentIdRange((String) literals[rightSlot], null, false);
+                default:
+                    return UNBOUNDED;
+            }
+        } else if (where instanceof In) {
+            In in = (In) where;
+            int firstSlot = nextSlot[0];
+            int size = in.getRightExpressions().size();
+            nextSlot[0] += size;
+            if (isNotParentId(in.getLeftExpression())) return UNBOUNDED;
+            return literals -> {
+                List<String> values = Arrays.stream(literals, firstSlot, firstSlot + size).map(String.class::cast).sorted().collect(Collectors.toList());
+                return new ParentIdRange(values.get(0), values.get(values.size() - 1), true);
+            };
+        } else if (where instanceof Like) {
+            Like like = (Like) where;
+            int slot = nextSlot[0]++;
+            if (isNotParentId(like.getLeftExpression())) return UNBOUNDED;
+            return literals -> {
+                String prefix = prefix((String) literals[slot]);
+                return new ParentIdRange(prefix, prefix + MAX_CHARACTER, true);
+            };
+        }
+        return UNBOUNDED;
+    }
+
+    public boolean hasParentIdPredicate(Condition where) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return hasParentIdPredicate(andOr.getLeftCondition()) || hasParentIdPredicate(andOr.getRightCondition());
+        } else if (where instanceof Comparison) {
+            Expression leftExpression = ((Comparison) where).getLeftExpression();
+            return !(leftExpression instanceof Function) && !isNotParentId(leftExpression);
+        } else if (where instanceof In) {
+            return !isNotParentId(((In) where).getLeftExpression());
+        } else if (where instanceof Like) {
+            return !isNotParentId(((Like) where).getLeftExpression());
+        }
+        return false;
+    }
+
+    /**
+     * @return the fields constrained by a range or LIKE predicate; Firestore requires a query to be ordered
+     * by such a field first
+     */
+    public Set<String> getRangeFields(Condition where) {
+        Set<String> fields = new HashSet<>();
+        collectRangeFields(where, fields);
+        return fields;
+    }
+
+    private void collectRangeFields(Condition where, Set<String> fields) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            collectRangeFields(andOr.getLeftCondition(), fields);
+            collectRangeFields(andOr.getRightCondition(), fields);
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            if (!(leftExpression instanceof Function) && isNotParentId(leftExpression) && comparison.getOperator() != EQ) {
+                fields.add(fieldName(leftExpression));
+            }
+        } else if (where instanceof Like) {
+            Expression leftExpression = ((Like) where).getLeftExpression();
+            if (isNotParentId(leftExpression)) fields.add(fieldName(leftExpression));
+        }
+    }
+
+    private boolean hasFieldRange(Condition where) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return hasFieldRange(andOr.getLeftCondition()) || hasFieldRange(andOr.getRightCondition());
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            return !(leftExpression instanceof Function) && isNotParentId(leftExpression) && comparison.getOperator() != EQ;
+        } else if (where instanceof Like) {
+            return isNotParentId(((Like) where).getLeftExpression());
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the values each field is pinned to when the condition is a conjunction of equality and IN
+     * predicates only: the literal slots of every predicate on the field, whose values are intersected
+     * by {@link #pinnedValues(List, Object[])}.
+     *
+     * @return the slots by field name, or {@code null} if the condition constrains anything else
+     */
+    @Nullable
+    public Map<String, List<int[]>> getPinnedSlots(Condition where) {
+        Map<String, List<int[]>> pinnedSlots = new HashMap<>();
+        return collectPinnedSlots(where, pinnedSlots, new int[1]) ? pinnedSlots : null;
+    }
+
+    private boolean collectPinnedSlots(Condition where, Map<String, List<int[]>> pinnedSlots, int[] nextSlot) {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            return andOr.getOperator() == AndOr.Operator.AND &&
+                    collectPinnedSlots(andOr.getLeftCondition(), pinnedSlots, nextSlot) &&
+                    collectPinnedSlots(andOr.getRightCondition(), pinnedSlots, nextSlot);
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            Expression leftExpression = comparison.getLeftExpression();
+            int rightSlot = nextSlot[0] + countLiterals(leftExpression);
+            nextSlot[0] = rightSlot + countLiterals(comparison.getRightExpression());
+            if (leftExpression instanceof Function || comparison.getOperator() != EQ) return false;
+            pinnedSlots.computeIfAbsent(fieldName(leftExpression), field -> new ArrayList<>()).add(new int[]{rightSlot});
+            return true;
+        } else if (where instanceof In) {
+            In in = (In) where;
+            int firstSlot = nextSlot[0];
+            nextSlot[0] += in.getRightExpressions().size();
+            if (in.isNegated()) return false;
+            pinnedSlots.computeIfAbsent(fieldName(in.getLeftExpression()), field -> new ArrayList<>())
+                    .add(IntStream.range(firstSlot, nextSlot[0]).toArray());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the values allowed by every predicate on a field, in the order of the first one
+     */
+    public static Set<Object> pinnedValues(List<int[]> predicateSlots, Object[] literals) {
+        Set<Object> values = null;
+        for (int[] slots : predicateSlots) {
+            Set<Object> allowed = new LinkedHashSet<>();
+            for (int slot : slots) {
+                allowed.add(literals[slot]);
+            }
+            if (values == null) {
+                values = allowed;
+            } else {
+                values.retainAll(allowed);
+            }
+        }
+        return values != null ? values : Collections.emptySet();
     }
 
     @Nullable
@@ -133,7 +984,7 @@ public class WhereProcessor {
         String field = fieldName(parameters.get(0));
         if (functionName.equals("array_contains")) {
             return query.whereArrayContains(field, literal(parameters.get(1)));
-        } else if (functionName.equals("array_contains_any")) {
+        } else if (functionName.equals(ARRAY_CONTAINS_ANY)) {
             List<Object> values = ((Array) parameters.get(1)).getExpressions().stream().map(TranslatorUtils::literal).collect(Collectors.toList());
             return query.whereArrayContainsAny(field, values);
         } else {
@@ -150,7 +1001,10 @@ public class WhereProcessor {
     }
 
     private String rightValue(Like like) throws TranslatorException {
-        String rightExpression = (String) literal(like.getRightExpression());
+        return prefix((String) literal(like.getRightExpression()));
+    }
+
+    private String prefix(String rightExpression) throws TranslatorException {
         if (!rightExpression.endsWith("%"))
             throw new TranslatorException("Unsupported LIKE expression. Only prefix filtering is allowed");
         return rightExpression.substring(0, rightExpression.length() - 1);
@@ -167,4 +1021,52 @@ public class WhereProcessor {
     private boolean isNotParentId(Expression expression) {
         return !isParentId(fieldName(expression));
     }
+
+    @FunctionalInterface
+    public interface QueryStep {
+        Query apply(Query query, Object[] literals) throws TranslatorException;
+    }
+
+    @FunctionalInterface
+    public interface FilterStep {
+        Predicate<DocumentSnapshot> bind(Object[] literals) throws TranslatorException;
+    }
+
+    @FunctionalInterface
+    public interface ParentIdRangeStep {
+        Query apply(Query query, Object[] literals, CollectionReference parentCollection) throws TranslatorException;
+    }
+
+    @FunctionalInterface
+    private interface RangeStep {
+        ParentIdRange bind(Object[] literals) throws TranslatorException;
+    }
+
+    private static class ParentIdRange {
+        private static final ParentIdRange UNBOUNDED = new ParentIdRange(null, null, true);
+
+        private final String lower;
+        private final String upper;
+        private final boolean upperInclusive;
+
+        private ParentIdRange(String lower, String upper, boolean upperInclusive) {
+            this.lower = isValidId(lower) ? lower : null;
+            this.upper = isValidId(upper) ? upper : null;
+            this.upperInclusive = upperInclusive;
+        }
+
+        private static boolean isValidId(String id) {
+            return id != null && !id.isEmpty() && !id.contains("/");
+        }
+
+        private ParentIdRange intersect(ParentIdRange other) {
+            String lower = this.lower == null ? other.lower :
+                    other.lower == null || this.lower.compareTo(other.lower) >= 0 ? this.lower : other.lower;
+            if (this.upper == null) return new ParentIdRange(lower, other.upper, other.upperInclusive);
+            if (other.upper == null) return new ParentIdRange(lower, this.upper, this.upperInclusive);
+            int comparison = this.upper.compareTo(other.upper);
+            if (comparison == 0) return new ParentIdRange(lower, upper, upperInclusive && other.upperInclusive);
+            return comparison < 0 ? new ParentIdRange(lower, upper, upperInclusive) : new ParentIdRange(lower, other.upper, other.upperInclusive);
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads documents by reference with batched gets instead of a query. The references are split into
+ * chunks that are all requested at once, so they are fetched concurrently under the lane's cap, and
+ * returned chunk by chunk in the order of the references. Documents that don't exist are skipped.
+ * <p>
+ * Given a {@code dataAvailable} callback {@link #next()} doesn't wait for a chunk in flight: it throws
+ * {@link DataNotAvailableException#NO_POLLING} and the callback is invoked once the chunk arrives.
+ */
+public class BatchGetDocumentStream implements DocumentStream {
+    private final List<ApiFuture<List<DocumentSnapshot>>> chunks = new ArrayList<>();
+    private final Runnable dataAvailable;
+    private int current;
+    private Iterator<DocumentSnapshot> chunk = Collections.emptyIterator();
+    private boolean awaitingChunk;
+    private long requested;
+
+    /**
+     * @param fields the fields to read, excluding the document id and the parentId
+     */
+    public BatchGetDocumentStream(FirestoreConnection connection, List<DocumentReference> references, String[] fields, int batchSize,
+                                  @Nullable Runnable dataAvailable, FanOutScheduler.Lane lane) {
+        this.dataAvailable = dataAvailable;
+        FieldMask fieldMask = FieldMask.of(fields);
+        int size = Math.max(1, batchSize);
+        for (int start = 0; start < references.size(); start += size) {
+            DocumentReference[] chunkReferences = references.subList(start, Math.min(start + size, references.size())).toArray(new DocumentReference[0]);
+            chunks.add(lane.call(() -> connection.getAll(chunkReferences, fieldMask)));
+            requested += chunkReferences.length;
+        }
+    }
+
+    /**
+     * @return the number of references requested, including those of documents that don't exist
+     */
+    public long getRequested() {
+        return requested;
+    }
+
+    @Override
+    public DocumentSnapshot next() throws TranslatorException {
+        while (true) {
+            while (chunk.hasNext()) {
+                DocumentSnapshot document = chunk.next();
+                if (document.exists()) return document;
+            }
+            if (current >= chunks.size()) return null;
+            ApiFuture<List<DocumentSnapshot>> nextChunk = chunks.get(current);
+            if (dataAvailable != null && !nextChunk.isDone()) {
+                if (!awaitingChunk) {
+                    nextChunk.addListener(dataAvailable, MoreExecutors.directExecutor());
+                    awaitingChunk = true;
+                }
+                throw DataNotAvailableException.NO_POLLING;
+            }
+            try {
+                chunk = nextChunk.get().iterator();
+            } catch (InterruptedException | ExecutionException e) {
+                close();
+                throw new TranslatorException(e);
+            }
+            chunks.set(current++, null);
+            awaitingChunk = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = current; i < chunks.size(); i++) {
+            chunks.get(i).cancel(true);
+        }
+        current = chunks.size();
+        chunk = Collections.emptyIterator();
+    }
+}
@@ -0,0 +1,242 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Splits writes into batches of at most {@value #MAX_BATCH_SIZE} operations, the Firestore limit, and
+ * commits up to {@code maxInFlight} batches concurrently. Adding an operation blocks only while that many
+ * commits are outstanding, so the producer overlaps with the commits and memory stays bounded.
+ * <p>
+ * Given a {@code dataAvailable} callback the writer never waits: where it would block it throws
+ * {@link DataNotAvailableException#NO_POLLING}, keeping the operation it was given, and invokes the
+ * callback once a commit completes. The caller then repeats the call that was interrupted.
+ * <p>
+ * Given a {@link WriteThrottle} the commits are paced to the table's write rate, and a batch failing
+ * with a throttling or contention status is rebuilt from its operations and committed again after a
+ * backoff, while it keeps its slot; only once its retries are exhausted does it count as failed.
+ */
+public class BatchWriter {
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private final FirestoreConnection connection;
+    private final FirestoreMetrics metrics;
+    private final String table;
+    private final WriteThrottle throttle;
+    private final WriteThrottle.Limiter limiter;
+    private final int batchSize;
+    private final Semaphore inFlight;
+    private final List<Consumer<WriteBatch>> pending = new ArrayList<>();
+    private final List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+    private final List<Integer> commitSizes = new ArrayList<>();
+    private final Runnable dataAvailable;
+    private final FanOutScheduler.Lane lane;
+    private final AtomicBoolean waiting = new AtomicBoolean();
+    private ApiFuture<List<WriteResult>> awaitedCommit;
+    private volatile Throwable failure;
+    private volatile boolean aborted;
+
+    public BatchWriter(FirestoreConnection connection, int batchSize, int maxInFlight, FirestoreMetrics metrics, String table) {
+        this(connection, batchSize, maxInFlight, metrics, table, null, null, null);
+    }
+
+    /**
+     * @param throttle paces and retries the commits; without one every batch is committed once, right away
+     * @param lane     admits every commit under the scheduler's caps, on top of {@code maxInFlight}
+     */
+    public BatchWriter(FirestoreConnection connection, int batchSize, int maxInFlight, FirestoreMetrics metrics, String table,
+                       @Nullable WriteThrottle throttle, @Nullable Runnable dataAvailable, @Nullable FanOutScheduler.Lane lane) {
+        this.connection = connection;
+        this.throttle = throttle;
+        this.limiter = throttle != null ? throttle.limiter(table) : null;
+        this.dataAvailable = dataAvailable;
+        this.lane = lane;
+        this.metrics = metrics;
+        this.table = table;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    public void add(Consumer<WriteBatch> operation) throws TranslatorException {
+        pending.add(operation);
+        while (pending.size() >= batchSize) {
+            flush(batchSize);
+        }
+    }
+
+    private void flush(int size) throws TranslatorException {
+        acquire();
+        List<Consumer<WriteBatch>> batchOperations = pending.subList(0, size);
+        List<Consumer<WriteBatch>> operations = new ArrayList<>(batchOperations);
+        batchOperations.clear();
+        commitSizes.add(size);
+        SettableApiFuture<List<WriteResult>> result = SettableApiFuture.create();
+        commits.add(result);
+        schedule(operations, result, 0);
+    }
+
+    private void schedule(List<Consumer<WriteBatch>> operations, SettableApiFuture<List<WriteResult>> result, int attempt) {
+        if (limiter == null) {
+            commit(operations, result, attempt);
+        } else {
+            throttle.schedule(() -> commit(operations, result, attempt), limiter.reserve(operations.size()));
+        }
+    }
+
+    private void commit(List<Consumer<WriteBatch>> operations, SettableApiFuture<List<WriteResult>> result, int attempt) {
+        if (aborted) {
+            // a batch still waiting for its turn is dropped like the pending operations
+            result.cancel(false);
+            release();
+            return;
+        }
+        long startedAt = System.nanoTime();
+        ApiFuture<List<WriteResult>> commit;
+        try {
+            WriteBatch batch = connection.batch();
+            operations.forEach(operation -> operation.accept(batch));
+            commit = lane != null ? lane.call(batch::commit) : batch.commit();
+        } catch (RuntimeException e) {
+            fail(result, e);
+            return;
+        }
+        ApiFutures.addCallback(commit, new ApiFutureCallback<List<WriteResult>>() {
+            @Override
+            public void onFailure(Throwable t) {
+                if (throttle != null && !aborted && throttle.isRetryable(t, attempt)) {
+                    metrics.recordError(table, "commit", t);
+                    limiter.throttled();
+                    throttle.schedule(() -> schedule(operations, result, attempt + 1), throttle.backoffNanos(attempt));
+                } else {
+                    fail(result, t);
+                }
+            }
+
+            @Override
+            public void onSuccess(List<WriteResult> value) {
+                metrics.recordCommit(table, operations.size(), System.nanoTime() - startedAt);
+                if (limiter != null) limiter.committed();
+                result.set(value);
+                release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void fail(SettableApiFuture<List<WriteResult>> result, Throwable t) {
+        metrics.recordError(table, "commit", t);
+        failure = t;
+        result.setException(t);
+        release();
+    }
+
+    private void acquire() throws TranslatorException {
+        if (dataAvailable == null) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TranslatorException(e);
+            }
+        } else if (!inFlight.tryAcquire()) {
+            waiting.set(true);
+            if (!inFlight.tryAcquire()) throw DataNotAvailableException.NO_POLLING;
+            waiting.set(false);
+        }
+    }
+
+    private void release() {
+        inFlight.release();
+        if (dataAvailable != null && waiting.compareAndSet(true, false)) dataAvailable.run();
+    }
+
+    /**
+     * Commits the remaining operations and waits for every batch. With a {@code dataAvailable} callback it
+     * throws {@link DataNotAvailableException#NO_POLLING} instead, until every commit has completed.
+     *
+     * @return one count per added operation, in order: 1 when its batch committed,
+     * {@link Statement#EXECUTE_FAILED} otherwise
+     */
+    public int[] finish() throws TranslatorException {
+        while (!pending.isEmpty()) {
+            flush(Math.min(pending.size(), batchSize));
+        }
+        if (dataAvailable != null) {
+            awaitCommits();
+        }
+        int[] counts = new int[commitSizes.stream().mapToInt(Integer::intValue).sum()];
+        int offset = 0;
+        for (int i = 0; i < commits.size(); i++) {
+            int size = commitSizes.get(i);
+            boolean committed;
+            try {
+                commits.get(i).get();
+                committed = true;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+                committed = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TranslatorException(e);
+            }
+            Arrays.fill(counts, offset, offset + size, committed ? 1 : Statement.EXECUTE_FAILED);
+            offset += size;
+        }
+        return counts;
+    }
+
+    private void awaitCommits() {
+        for (ApiFuture<List<WriteResult>> commit : commits) {
+            if (!commit.isDone()) {
+                if (commit != awaitedCommit) {
+                    commit.addListener(dataAvailable, MoreExecutors.directExecutor());
+                    awaitedCommit = commit;
+                }
+                throw DataNotAvailableException.NO_POLLING;
+            }
+        }
+    }
+
+    /**
+     * Drops the operations not yet committed and waits for the batches already in flight, which are no
+     * longer retried. This always waits, as it only runs once the statement has failed.
+     */
+    public void abort() {
+        aborted = true;
+        pending.clear();
+        for (ApiFuture<List<WriteResult>> commit : commits) {
+            try {
+                commit.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (CancellationException e) {
+                // dropped before it was committed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,79 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.teiid.language.MetadataReference;
+import org.teiid.language.OrderBy;
+import org.teiid.language.SortSpecification;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * Orders documents client-side the way an ORDER BY clause would, including the parentId column
+ * that Firestore cannot sort on. Values of different types follow Firestore's type ordering.
+ */
+public class DocumentComparator implements Comparator<DocumentSnapshot> {
+    private final String[] fields;
+    private final boolean[] descending;
+
+    public DocumentComparator(OrderBy orderBy) {
+        List<SortSpecification> sortSpecifications = orderBy.getSortSpecifications();
+        this.fields = new String[sortSpecifications.size()];
+        this.descending = new boolean[sortSpecifications.size()];
+        for (int i = 0; i < fields.length; i++) {
+            SortSpecification sortSpecification = sortSpecifications.get(i);
+            fields[i] = nameInSource((MetadataReference) sortSpecification.getExpression());
+            descending[i] = sortSpecification.getOrdering() == SortSpecification.Ordering.DESC;
+        }
+    }
+
+    @Override
+    public int compare(DocumentSnapshot left, DocumentSnapshot right) {
+        for (int i = 0; i < fields.length; i++) {
+            int comparison = compareValues(fieldValue(left, fields[i]), fieldValue(right, fields[i]));
+            if (comparison != 0) return descending[i] ? -comparison : comparison;
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static int compareValues(Object left, Object right) {
+        left = normalize(left);
+        right = normalize(right);
+        int typeComparison = Integer.compare(typeOrder(left), typeOrder(right));
+        if (typeComparison != 0 || left == null) return typeComparison;
+        if (left instanceof Number) {
+            return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        if (left instanceof Comparable && left.getClass().equals(right.getClass())) {
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+        return String.valueOf(left).compareTo(String.valueOf(right));
+    }
+
+    /**
+     * Brings SQL date literals and stored Firestore timestamps to the same type, so they compare by
+     * instant instead of by type.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof java.sql.Timestamp) return Timestamp.of((java.sql.Timestamp) value);
+        if (value instanceof Date) return Timestamp.of((Date) value);
+        return value;
+    }
+
+    private static int typeOrder(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Boolean) return 1;
+        if (value instanceof Number) return 2;
+        if (value instanceof Timestamp) return 3;
+        if (value instanceof String) return 4;
+        if (value instanceof List) return 6;
+        if (value instanceof Map) return 7;
+        return 5;
+    }
+}
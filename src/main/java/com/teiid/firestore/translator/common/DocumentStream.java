@@ -0,0 +1,171 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.teiid.translator.TranslatorException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Pull-based source of documents consumed by the executions. {@link #next()} returns {@code null}
+ * once the stream is exhausted, mirroring the {@link org.teiid.translator.ResultSetExecution} contract.
+ */
+public interface DocumentStream {
+
+    DocumentSnapshot next() throws TranslatorException;
+
+    void close();
+
+    default DocumentStream filter(Predicate<DocumentSnapshot> predicate) {
+        DocumentStream source = this;
+        return new DocumentStream() {
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                DocumentSnapshot document;
+                while ((document = source.next()) != null) {
+                    if (predicate.test(document)) return document;
+                }
+                return null;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    default DocumentStream limit(int rowLimit) {
+        DocumentStream source = this;
+        return new DocumentStream() {
+            private int returned;
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                if (returned >= rowLimit) {
+                    source.close();
+                    return null;
+                }
+                DocumentSnapshot document = source.next();
+                if (document != null) returned++;
+                return document;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the documents in comparator order, draining the stream on the first call to {@code next()}.
+     * With a row limit only the top {@code rowLimit} documents are kept, in a bounded heap. A drain
+     * interrupted because the source has no data available yet resumes on the next call.
+     */
+    default DocumentStream sorted(Comparator<DocumentSnapshot> comparator, Integer rowLimit) {
+        DocumentStream source = this;
+        return new DocumentStream() {
+            private final List<DocumentSnapshot> documents = new ArrayList<>();
+            private final PriorityQueue<DocumentSnapshot> heap = rowLimit != null ? new PriorityQueue<>(rowLimit + 1, comparator.reversed()) : null;
+            private Iterator<DocumentSnapshot> sorted;
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                if (sorted == null) {
+                    drain();
+                }
+                return sorted.hasNext() ? sorted.next() : null;
+            }
+
+            private void drain() throws TranslatorException {
+                try {
+                    for (DocumentSnapshot document = source.next(); document != null && (heap == null || rowLimit > 0); document = source.next()) {
+                        if (heap == null) {
+                            documents.add(document);
+                        } else {
+                            heap.add(document);
+                            if (heap.size() > rowLimit) heap.poll();
+                        }
+                    }
+                } catch (TranslatorException e) {
+                    source.close();
+                    throw e;
+                }
+                source.close();
+                if (heap != null) documents.addAll(heap);
+                documents.sort(comparator);
+                sorted = documents.iterator();
+            }
+
+            @Override
+            public void close() {
+                sorted = Collections.emptyIterator();
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Sorts the runs of consecutive documents that {@code runs} finds equal, for a stream already ordered by
+     * it, so only the current run is held in memory rather than the whole stream.
+     */
+    default DocumentStream sortedRuns(Comparator<DocumentSnapshot> runs, Comparator<DocumentSnapshot> comparator) {
+        DocumentStream source = this;
+        return new DocumentStream() {
+            private List<DocumentSnapshot> run = new ArrayList<>();
+            private List<DocumentSnapshot> sorted = Collections.emptyList();
+            private int position;
+            private boolean exhausted;
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                while (position >= sorted.size()) {
+                    if (exhausted) return null;
+                    DocumentSnapshot document = source.next();
+                    if (document == null) {
+                        exhausted = true;
+                        release();
+                    } else {
+                        if (!run.isEmpty() && runs.compare(run.get(0), document) != 0) release();
+                        run.add(document);
+                    }
+                }
+                return sorted.get(position++);
+            }
+
+            private void release() {
+                run.sort(comparator);
+                sorted = run;
+                position = 0;
+                run = new ArrayList<>();
+            }
+
+            @Override
+            public void close() {
+                exhausted = true;
+                sorted = Collections.emptyList();
+                source.close();
+            }
+        };
+    }
+
+    static DocumentStream of(Iterable<? extends DocumentSnapshot> documents) {
+        Iterator<? extends DocumentSnapshot> iterator = documents.iterator();
+        return new DocumentStream() {
+            @Override
+            public DocumentSnapshot next() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
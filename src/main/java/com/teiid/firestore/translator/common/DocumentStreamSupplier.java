@@ -0,0 +1,11 @@
+package com.teiid.firestore.translator.common;
+
+import org.teiid.translator.TranslatorException;
+
+/**
+ * Deferred query whose stream is opened only when the consumer is ready for it.
+ */
+@FunctionalInterface
+public interface DocumentStreamSupplier {
+    DocumentStream open() throws TranslatorException;
+}
@@ -0,0 +1,210 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Admits Firestore calls under a global cap and a cap per query. Every query submits its calls through its
+ * own {@link Lane}, and a call waiting for a slot is started once one frees up, taking the lanes in turn so
+ * that a query issuing many calls can't starve the others.
+ * <p>
+ * A call holds its slot until its first response arrives, not until its results are consumed, so a query
+ * whose results aren't read yet never blocks the others. Calls are started on virtual threads when the
+ * runtime has them, and on a small pool of platform threads otherwise.
+ */
+public class FanOutScheduler {
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerLane;
+    private final ExecutorService executor;
+    private final Map<Object, LaneState> lanes = new HashMap<>();
+    private final Queue<LaneState> ready = new ArrayDeque<>();
+    private int running;
+
+    public FanOutScheduler(int maxConcurrency, int maxConcurrencyPerLane, boolean virtualThreads) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxConcurrencyPerLane = Math.max(1, maxConcurrencyPerLane);
+        this.executor = executor(virtualThreads);
+    }
+
+    private static ExecutorService executor(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LogManager.logDetail(LogConstants.CTX_CONNECTOR, "Virtual threads are not available, starting Firestore calls on platform threads");
+            }
+        }
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "firestore-fan-out-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops taking calls. Calls already started run to completion; submitting one afterwards fails.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @param requestId the Teiid request the calls belong to; without one the lane is private to the caller
+     */
+    public Lane lane(@Nullable String requestId) {
+        return new Lane(requestId != null ? requestId : new Object());
+    }
+
+    private void submit(Object key, Call call) {
+        synchronized (this) {
+            LaneState lane = lanes.computeIfAbsent(key, LaneState::new);
+            lane.queued.add(call);
+            markReady(lane);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Runnable> started = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxConcurrency && !ready.isEmpty()) {
+                LaneState lane = ready.poll();
+                lane.ready = false;
+                Call call = lane.queued.poll();
+                lane.running++;
+                running++;
+                markReady(lane);
+                started.add(() -> start(lane, call));
+            }
+        }
+        started.forEach(executor::execute);
+    }
+
+    /**
+     * A lane goes to the back of the queue after each admitted call, which makes admission round-robin.
+     */
+    private void markReady(LaneState lane) {
+        if (!lane.ready && !lane.queued.isEmpty() && lane.running < maxConcurrencyPerLane) {
+            lane.ready = true;
+            ready.add(lane);
+        }
+    }
+
+    private void start(LaneState lane, Call call) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) release(lane);
+        };
+        try {
+            call.start(release);
+        } catch (RuntimeException e) {
+            release.run();
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, "Failed to start a Firestore call: " + e.getMessage());
+        }
+    }
+
+    private void release(LaneState lane) {
+        synchronized (this) {
+            running--;
+            lane.running--;
+            if (lane.running == 0 && lane.queued.isEmpty()) {
+                lanes.remove(lane.key);
+            } else {
+                markReady(lane);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * A call started once admitted. It must invoke {@code release} when its first response arrives or
+     * it fails; invoking it again has no effect.
+     */
+    @FunctionalInterface
+    public interface Call {
+        void start(Runnable release);
+    }
+
+    public final class Lane {
+        private final Object key;
+
+        private Lane(Object key) {
+            this.key = key;
+        }
+
+        public void submit(Call call) {
+            FanOutScheduler.this.submit(key, call);
+        }
+
+        /**
+         * Admits a unary call and releases its slot when it completes.
+         *
+         * @return a future completed with the call's result; cancelling it before admission skips the call,
+         * and after admission cancels the call's own future
+         */
+        public <V> ApiFuture<V> call(Supplier<ApiFuture<V>> call) {
+            SettableApiFuture<V> result = SettableApiFuture.create();
+            submit(release -> {
+                if (result.isCancelled()) {
+                    release.run();
+                    return;
+                }
+                ApiFuture<V> response;
+                try {
+                    response = call.get();
+                } catch (RuntimeException e) {
+                    release.run();
+                    result.setException(e);
+                    return;
+                }
+                result.addListener(() -> {
+                    if (result.isCancelled()) response.cancel(true);
+                }, MoreExecutors.directExecutor());
+                ApiFutures.addCallback(response, new ApiFutureCallback<V>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                        release.run();
+                        result.setException(t);
+                    }
+
+                    @Override
+                    public void onSuccess(V value) {
+                        release.run();
+                        result.set(value);
+                    }
+                }, MoreExecutors.directExecutor());
+            });
+            return result;
+        }
+    }
+
+    private static class LaneState {
+        private final Object key;
+        private final Queue<Call> queued = new ArrayDeque<>();
+        private int running;
+        private boolean ready;
+
+        private LaneState(Object key) {
+            this.key = key;
+        }
+    }
+}
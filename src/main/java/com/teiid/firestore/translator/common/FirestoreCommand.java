@@ -7,6 +7,9 @@ import org.teiid.language.NamedTable;
 import org.teiid.language.OrderBy;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static com.teiid.firestore.translator.common.TranslatorUtils.PARENT_ID_SUFFIX;
 
@@ -17,12 +20,18 @@ public class FirestoreCommand {
     private OrderBy orderBy;
     private String[] fields;
     private String[] filteredFields;
+    private boolean keysOnly;
 
+    /**
+     * Creates a keys-only command that selects the references of the documents matching the condition,
+     * as needed by UPDATE and DELETE.
+     */
     public FirestoreCommand(NamedTable namedTable, Condition where) {
         this.namedTable = namedTable;
         this.where = where;
         this.fields = new String[]{FieldPath.documentId().toString()};
         this.filteredFields = fields;
+        this.keysOnly = true;
     }
 
     public FirestoreCommand(NamedTable namedTable, Condition where, Limit limit, OrderBy orderBy, String[] fields) {
@@ -31,9 +40,32 @@ public class FirestoreCommand {
         this.limit = limit;
         this.orderBy = orderBy;
         this.fields = fields;
-        this.filteredFields = Arrays.stream(fields)
-                .filter(field -> !field.endsWith(PARENT_ID_SUFFIX))
-                .toArray(String[]::new);
+    }
+
+    private FirestoreCommand(FirestoreCommand command, Condition where) {
+        this.namedTable = command.namedTable;
+        this.where = where;
+        this.limit = command.limit;
+        this.orderBy = command.orderBy;
+        this.fields = command.fields;
+        this.filteredFields = command.filteredFields;
+        this.keysOnly = command.keysOnly;
+    }
+
+    public FirestoreCommand withWhere(Condition where) {
+        return new FirestoreCommand(this, where);
+    }
+
+    /**
+     * @return the command also projecting the given fields, which aren't part of its rows
+     */
+    public FirestoreCommand withProjectedFields(Collection<String> projectedFields) {
+        FirestoreCommand command = new FirestoreCommand(this, where);
+        Set<String> fields = new LinkedHashSet<>(Arrays.asList(this.fields));
+        fields.addAll(projectedFields);
+        command.fields = fields.toArray(new String[0]);
+        command.filteredFields = null;
+        return command;
     }
 
     public NamedTable getNamedTable() {
@@ -56,7 +88,19 @@ public class FirestoreCommand {
         return fields;
     }
 
+    /**
+     * @return the fields stored in the documents, without the parentId column; computed once a query plan is compiled
+     */
     public String[] getFilteredFields() {
+        if (filteredFields == null) {
+            filteredFields = Arrays.stream(fields)
+                    .filter(field -> !field.endsWith(PARENT_ID_SUFFIX))
+                    .toArray(String[]::new);
+        }
         return filteredFields;
     }
+
+    public boolean isKeysOnly() {
+        return keysOnly;
+    }
 }
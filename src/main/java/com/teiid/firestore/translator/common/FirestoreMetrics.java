@@ -0,0 +1,208 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.teiid.firestore.translator.replica.CollectionReplica;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.teiid.translator.TranslatorException;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-table meters of the translator. Documents read from Firestore against rows returned to the engine
+ * shows how much is filtered client side; every document read is billed, so tables with a high ratio are
+ * the first candidates for better pushdown or an index.
+ */
+public class FirestoreMetrics {
+    private static final String TABLE = "table";
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final MeterRegistry registry;
+
+    public FirestoreMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Timer.Sample startQuery() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Records the latency of a query: the time from its execution until its first row, or its end when it
+     * has none. The time the engine takes to drain the rest isn't Firestore's.
+     */
+    public void recordFirstRow(Timer.Sample sample, String table) {
+        sample.stop(Timer.builder("firestore.query")
+                .description("Time from executing a query until its first row or its end")
+                .tag(TABLE, table)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    public void recordRows(String table, long rowsReturned) {
+        Counter.builder("firestore.rows.returned")
+                .description("Rows returned to the engine")
+                .tag(TABLE, table)
+                .register(registry)
+                .increment(rowsReturned);
+    }
+
+    /**
+     * Counts the documents a stream reads from Firestore, publishing the count when the stream is closed
+     * or exhausted.
+     */
+    public DocumentStream countReads(String table, DocumentStream source) {
+        return new DocumentStream() {
+            private long read;
+            private boolean published;
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                DocumentSnapshot document = source.next();
+                if (document != null) {
+                    read++;
+                } else {
+                    publish();
+                }
+                return document;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+                publish();
+            }
+
+            private void publish() {
+                if (published) return;
+                published = true;
+                recordReads(table, read);
+            }
+        };
+    }
+
+    /**
+     * Counts the reads of a batched get. Firestore bills every requested key, found or not, so the count
+     * is the number of references in the chunks requested, published when the stream is closed or exhausted.
+     */
+    public DocumentStream countLookups(String table, BatchGetDocumentStream source) {
+        return new DocumentStream() {
+            private boolean published;
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                DocumentSnapshot document = source.next();
+                if (document == null) publish();
+                return document;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+                publish();
+            }
+
+            private void publish() {
+                if (published) return;
+                published = true;
+                recordReads(table, source.getRequested());
+            }
+        };
+    }
+
+    /**
+     * Publishes the hits, misses, evictions and invalidations of the result cache, and its number of entries.
+     */
+    public void registerResultCache(QueryResultCache cache) {
+        FunctionCounter.builder("firestore.cache.hits", cache, QueryResultCache::getHits)
+                .description("Queries answered from the result cache")
+                .register(registry);
+        FunctionCounter.builder("firestore.cache.misses", cache, QueryResultCache::getMisses)
+                .description("Queries of cached tables read from Firestore")
+                .register(registry);
+        FunctionCounter.builder("firestore.cache.evictions", cache, QueryResultCache::getEvictions)
+                .description("Results evicted to keep the cache within its bounds")
+                .register(registry);
+        FunctionCounter.builder("firestore.cache.invalidations", cache, QueryResultCache::getInvalidations)
+                .description("Results dropped by writes to their collection")
+                .register(registry);
+        Gauge.builder("firestore.cache.entries", cache, QueryResultCache::size)
+                .description("Results held by the cache")
+                .register(registry);
+        Gauge.builder("firestore.cache.rows", cache, QueryResultCache::getRows)
+                .description("Rows held by the cached results together")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the snapshot age and memory of the replica of a table. The gauges look the replica up
+     * on every read, so they follow a replica replaced after its listener failed.
+     *
+     * @param replicas the live replicas, keyed by full table name
+     */
+    public void registerReplica(String table, String fullName, Map<String, CollectionReplica> replicas) {
+        TimeGauge.builder("firestore.replica.snapshot.age", replicas, TimeUnit.MILLISECONDS, current -> {
+                    CollectionReplica replica = current.get(fullName);
+                    return replica != null && replica.getColumns() != null ? replica.getSnapshotAgeMillis() : Double.NaN;
+                })
+                .description("Time since the replica applied its last snapshot")
+                .tag(TABLE, table)
+                .register(registry);
+        Gauge.builder("firestore.replica.memory", replicas, current -> {
+                    CollectionReplica replica = current.get(fullName);
+                    return replica != null ? replica.getEstimatedMemoryBytes() : 0;
+                })
+                .description("Estimated memory held by the replica")
+                .tag(TABLE, table)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private void recordReads(String table, long documents) {
+        Counter.builder("firestore.documents.read")
+                .description("Documents read from Firestore")
+                .tag(TABLE, table)
+                .register(registry)
+                .increment(documents);
+    }
+
+    public void recordCommit(String table, int batchSize, long latencyNanos) {
+        DistributionSummary.builder("firestore.write.batch.size")
+                .description("Operations per committed write batch")
+                .tag(TABLE, table)
+                .register(registry)
+                .record(batchSize);
+        Timer.builder("firestore.commit")
+                .description("Write batch commit latency")
+                .tag(TABLE, table)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordError(String table, String operation, Throwable error) {
+        Counter.builder("firestore.errors")
+                .description("Failed Firestore calls by gRPC status")
+                .tag(TABLE, table)
+                .tag("operation", operation)
+                .tag("status", status(error))
+                .register(registry)
+                .increment();
+    }
+
+    private static String status(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException) {
+                return ((ApiException) cause).getStatusCode().getCode().name();
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,162 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Merges the results of several queries over the same collection. With a comparator the sources are
+ * expected to be sorted by it and are merged k-way, preserving the order; they are opened in waves of
+ * {@code maxParallel}, each wave once the previous one has returned its first documents, and every open
+ * source holds no more than its current page. Otherwise they are concatenated and at most
+ * {@code maxParallel} sources are open at a time; the next one is opened when one is drained.
+ * <p>
+ * Sources may overlap. Each one comes with a filter of the documents it certainly returns and one of the
+ * documents it may return: a document is skipped when an earlier source certainly returns it too, and the
+ * path of a returned document another source may return is kept, unless a source before that one
+ * certainly returns it, to skip its other copy.
+ * Only those paths are kept, which are none where the filters mirror Firestore exactly; with filters
+ * accepting nothing and everything, every returned path is kept, as suits a merge cut by a row limit.
+ */
+public class MergedDocumentStream implements DocumentStream {
+    private final List<DocumentStreamSupplier> suppliers;
+    private final List<Predicate<DocumentSnapshot>> matches;
+    private final List<Predicate<DocumentSnapshot>> candidates;
+    private final Set<String> returnedPaths = new HashSet<>();
+    private final List<DocumentStream> sources = new ArrayList<>();
+    private final Comparator<DocumentSnapshot> comparator;
+    private final int maxParallel;
+    private final Queue<Head> refills = new ArrayDeque<>();
+    private PriorityQueue<Head> heads;
+    private int current;
+
+    /**
+     * @param matches    accepts only documents the source of the same index certainly returns, or {@code null}
+     *                   when the sources don't overlap
+     * @param candidates rejects only documents the source of the same index certainly doesn't return, or
+     *                   {@code null} when the sources don't overlap
+     */
+    public MergedDocumentStream(List<DocumentStreamSupplier> suppliers, @Nullable List<Predicate<DocumentSnapshot>> matches,
+                                @Nullable List<Predicate<DocumentSnapshot>> candidates, Comparator<DocumentSnapshot> comparator,
+                                int maxParallel) throws TranslatorException {
+        this.suppliers = suppliers;
+        this.matches = matches;
+        this.candidates = candidates;
+        this.comparator = comparator;
+        this.maxParallel = Math.max(1, maxParallel);
+        try {
+            open(this.maxParallel);
+        } catch (TranslatorException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void open(int count) throws TranslatorException {
+        while (sources.size() < Math.min(count, suppliers.size())) {
+            int index = sources.size();
+            DocumentStream source = suppliers.get(index).open();
+            sources.add(source);
+            if (comparator != null) refills.add(new Head(index, source, null));
+        }
+    }
+
+    @Override
+    public DocumentSnapshot next() throws TranslatorException {
+        while (true) {
+            Head head = comparator != null ? nextSorted() : nextConcatenated();
+            if (head == null) return null;
+            if (matches == null) return head.document;
+            if (!returnedElsewhere(head)) {
+                if (mayReturnElsewhere(head)) returnedPaths.add(head.document.getReference().getPath());
+                return head.document;
+            }
+        }
+    }
+
+    private boolean returnedElsewhere(Head head) {
+        for (int index = 0; index < head.index; index++) {
+            if (matches.get(index).test(head.document)) return true;
+        }
+        return !returnedPaths.isEmpty() && returnedPaths.contains(head.document.getReference().getPath());
+    }
+
+    /**
+     * A copy from another source is skipped without the path when a source before it certainly returns
+     * the document.
+     */
+    private boolean mayReturnElsewhere(Head head) {
+        for (int index = 0; index < suppliers.size(); index++) {
+            if (index != head.index && candidates.get(index).test(head.document)) return true;
+            if (matches.get(index).test(head.document)) return false;
+        }
+        return false;
+    }
+
+    private Head nextConcatenated() throws TranslatorException {
+        while (current < sources.size()) {
+            DocumentSnapshot document = sources.get(current).next();
+            if (document != null) return new Head(current, sources.get(current), document);
+            sources.get(current).close();
+            current++;
+            open(current + maxParallel);
+        }
+        return null;
+    }
+
+    /**
+     * A source leaves the refill queue only once its next document is known, so a source without data
+     * available yet is simply retried on the next call and no head is lost. The next wave of sources is
+     * opened once every open one has a head.
+     */
+    private Head nextSorted() throws TranslatorException {
+        if (heads == null) {
+            heads = new PriorityQueue<>(Math.max(1, suppliers.size()), (left, right) -> comparator.compare(left.document, right.document));
+        }
+        while (true) {
+            while (!refills.isEmpty()) {
+                Head refill = refills.peek();
+                DocumentSnapshot document = refill.source.next();
+                if (document != null) {
+                    heads.add(new Head(refill.index, refill.source, document));
+                } else {
+                    refill.source.close();
+                }
+                refills.poll();
+            }
+            if (sources.size() == suppliers.size()) break;
+            open(sources.size() + maxParallel);
+        }
+        Head head = heads.poll();
+        if (head == null) return null;
+        refills.add(head);
+        return head;
+    }
+
+    @Override
+    public void close() {
+        sources.forEach(DocumentStream::close);
+    }
+
+    private static class Head {
+        private final int index;
+        private final DocumentStream source;
+        private final DocumentSnapshot document;
+
+        private Head(int index, DocumentStream source, DocumentSnapshot document) {
+            this.index = index;
+            this.source = source;
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Walks a query page by page using {@code startAfter} cursors. The query must be explicitly ordered by the
+ * cursor fields, ending with the document id, and project them: the cursor is built from their values in
+ * the last document of a page. A cursor built from the snapshot would use the implicit ordering, whose
+ * inequality field is missing from a projection that doesn't select it. The next page is requested as soon as
+ * the current one arrives, so it is fetched while the engine drains the current page. With adaptive
+ * sizing enabled the page size grows while pages come back well under the latency target and shrinks
+ * when they exceed it.
+ * <p>
+ * Given a {@code dataAvailable} callback {@link #next()} doesn't wait for a page in flight: it throws
+ * {@link DataNotAvailableException#NO_POLLING} and the callback is invoked once the page arrives.
+ */
+public class PagedDocumentStream implements DocumentStream {
+    private static final int ADAPTIVE_RANGE = 8;
+
+    private final Query query;
+    private final FieldPath[] cursorFields;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long latencyTargetMillis;
+    private final Runnable dataAvailable;
+    private final FanOutScheduler.Lane lane;
+    private int pageSize;
+    private int remaining;
+    private Iterator<QueryDocumentSnapshot> page = Collections.emptyIterator();
+    private ApiFuture<QuerySnapshot> nextPage;
+    private int nextPageSize;
+    private long nextPageRequestedAt;
+    private boolean awaitingNextPage;
+
+    public PagedDocumentStream(Query query, FieldPath[] cursorFields, int pageSize, boolean adaptive, long latencyTargetMillis, int rowLimit) {
+        this(query, cursorFields, pageSize, adaptive, latencyTargetMillis, rowLimit, null, null);
+    }
+
+    /**
+     * @param cursorFields the fields the query is ordered by, the last one being {@link FieldPath#documentId()}
+     * @param lane         admits every page request under the scheduler's caps
+     */
+    public PagedDocumentStream(Query query, FieldPath[] cursorFields, int pageSize, boolean adaptive, long latencyTargetMillis, int rowLimit,
+                               @Nullable Runnable dataAvailable, @Nullable FanOutScheduler.Lane lane) {
+        this.query = query;
+        this.cursorFields = cursorFields;
+        this.pageSize = pageSize;
+        this.minPageSize = adaptive ? Math.max(1, pageSize / ADAPTIVE_RANGE) : pageSize;
+        this.maxPageSize = adaptive ? pageSize * ADAPTIVE_RANGE : pageSize;
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.remaining = rowLimit;
+        this.dataAvailable = dataAvailable;
+        this.lane = lane;
+        requestPage(query);
+    }
+
+    @Override
+    public DocumentSnapshot next() throws TranslatorException {
+        while (!page.hasNext()) {
+            if (nextPage == null) return null;
+            if (dataAvailable != null && !nextPage.isDone()) {
+                if (!awaitingNextPage) {
+                    nextPage.addListener(dataAvailable, MoreExecutors.directExecutor());
+                    awaitingNextPage = true;
+                }
+                throw DataNotAvailableException.NO_POLLING;
+            }
+            List<QueryDocumentSnapshot> documents = awaitNextPage();
+            page = documents.iterator();
+        }
+        return page.next();
+    }
+
+    private List<QueryDocumentSnapshot> awaitNextPage() throws TranslatorException {
+        List<QueryDocumentSnapshot> documents;
+        try {
+            documents = nextPage.get().getDocuments();
+        } catch (InterruptedException | ExecutionException e) {
+            nextPage = null;
+            throw new TranslatorException(e);
+        }
+        adaptPageSize(System.currentTimeMillis() - nextPageRequestedAt);
+        remaining -= documents.size();
+        boolean lastPage = documents.size() < nextPageSize || remaining <= 0;
+        nextPage = null;
+        if (!lastPage) {
+            requestPage(query.startAfter(cursor(documents.get(documents.size() - 1))));
+        }
+        return documents;
+    }
+
+    private Object[] cursor(DocumentSnapshot document) {
+        Object[] values = new Object[cursorFields.length];
+        for (int i = 0; i < cursorFields.length; i++) {
+            values[i] = cursorFields[i].equals(FieldPath.documentId()) ? document.getReference() : document.get(cursorFields[i]);
+        }
+        return values;
+    }
+
+    private void requestPage(Query pageQuery) {
+        nextPageSize = Math.min(pageSize, remaining);
+        awaitingNextPage = false;
+        nextPageRequestedAt = System.currentTimeMillis();
+        Query limited = pageQuery.limit(nextPageSize);
+        nextPage = lane != null ? lane.call(limited::get) : limited.get();
+    }
+
+    private void adaptPageSize(long latencyMillis) {
+        if (latencyMillis > latencyTargetMillis) {
+            pageSize = Math.max(minPageSize, pageSize / 2);
+        } else if (latencyMillis < latencyTargetMillis / 2) {
+            pageSize = Math.min(maxPageSize, pageSize * 2);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+        page = Collections.emptyIterator();
+    }
+}
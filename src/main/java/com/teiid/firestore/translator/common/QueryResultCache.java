@@ -0,0 +1,159 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.teiid.translator.TranslatorException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of query results keyed by their query plan, literal values and row limit, bounded both by its number
+ * of entries and by the rows they hold together, so a few large results can't take the memory meant for many
+ * small ones. Entries expire after the TTL of their table, and every write to a collection drops that
+ * collection's entries. A per-collection generation keeps a read that overlapped with a write from caching its
+ * stale result.
+ */
+public class QueryResultCache {
+    private final int maxEntries;
+    private final int maxRowsPerEntry;
+    private final long maxRows;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> generations = new HashMap<>();
+    private long rows;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxRows rows held by all the entries together
+     */
+    public QueryResultCache(int maxEntries, int maxRowsPerEntry, long maxRows) {
+        this.maxEntries = maxEntries;
+        this.maxRowsPerEntry = (int) Math.min(maxRowsPerEntry, maxRows);
+        this.maxRows = maxRows;
+    }
+
+    @Nullable
+    public synchronized List<DocumentSnapshot> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.documents;
+    }
+
+    /**
+     * Wraps the stream of a cache miss so that its documents are cached once it is fully read.
+     */
+    public DocumentStream caching(String collection, String key, long ttlMillis, DocumentStream source) {
+        long generation = generation(collection);
+        return new DocumentStream() {
+            private List<DocumentSnapshot> documents = new ArrayList<>();
+
+            @Override
+            public DocumentSnapshot next() throws TranslatorException {
+                DocumentSnapshot document = source.next();
+                if (documents != null) {
+                    if (document == null) {
+                        put(collection, key, ttlMillis, generation, documents);
+                        documents = null;
+                    } else if (documents.size() < maxRowsPerEntry) {
+                        documents.add(document);
+                    } else {
+                        documents = null;
+                    }
+                }
+                return document;
+            }
+
+            @Override
+            public void close() {
+                documents = null;
+                source.close();
+            }
+        };
+    }
+
+    private synchronized void put(String collection, String key, long ttlMillis, long generation, List<DocumentSnapshot> documents) {
+        if (generation != generation(collection)) return;
+        remove(key);
+        entries.put(key, new Entry(collection, Collections.unmodifiableList(documents), System.currentTimeMillis() + ttlMillis));
+        rows += documents.size();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || rows > maxRows) {
+            rows -= eldest.next().documents.size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) rows -= entry.documents.size();
+    }
+
+    public synchronized void invalidate(String collection) {
+        generations.merge(collection, 1L, Long::sum);
+        entries.values().removeIf(entry -> {
+            boolean invalidated = entry.collection.equals(collection);
+            if (invalidated) {
+                rows -= entry.documents.size();
+                invalidations++;
+            }
+            return invalidated;
+        });
+    }
+
+    private synchronized long generation(String collection) {
+        return generations.getOrDefault(collection, 0L);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private static class Entry {
+        private final String collection;
+        private final List<DocumentSnapshot> documents;
+        private final long expiresAt;
+
+        private Entry(String collection, List<DocumentSnapshot> documents, long expiresAt) {
+            this.collection = collection;
+            this.documents = documents;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
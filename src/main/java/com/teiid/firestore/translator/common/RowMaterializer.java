@@ -0,0 +1,119 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.GeoPoint;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.DerivedColumn;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.teiid.firestore.translator.common.TranslatorUtils.PARENT_ID_SUFFIX;
+import static com.teiid.firestore.translator.common.TranslatorUtils.nameInSource;
+
+/**
+ * Projection of a select compiled once per execution: an accessor per column reading a pre-parsed
+ * {@link FieldPath} and a converter to the column's runtime type, so rows are built without
+ * re-inspecting field names or re-parsing dotted paths.
+ */
+public class RowMaterializer {
+    private final Function<DocumentSnapshot, Object>[] accessors;
+    private final Function<Object, Object>[] converters;
+
+    @SuppressWarnings("unchecked")
+    public RowMaterializer(List<DerivedColumn> derivedColumns) {
+        int size = derivedColumns.size();
+        accessors = new Function[size];
+        converters = new Function[size];
+        for (int i = 0; i < size; i++) {
+            ColumnReference column = (ColumnReference) derivedColumns.get(i).getExpression();
+            accessors[i] = accessor(nameInSource(column));
+            converters[i] = converter(column.getType());
+        }
+    }
+
+    public List<?> materialize(DocumentSnapshot snapshot) {
+        List<Object> row = new ArrayList<>(accessors.length);
+        for (int i = 0; i < accessors.length; i++) {
+            row.add(converters[i].apply(accessors[i].apply(snapshot)));
+        }
+        return row;
+    }
+
+    /**
+     * Converts a row of raw field values, as read from a replica, in place.
+     */
+    public List<?> convert(List<Object> values) {
+        for (int i = 0; i < converters.length; i++) {
+            values.set(i, converters[i].apply(values.get(i)));
+        }
+        return values;
+    }
+
+    private static Function<DocumentSnapshot, Object> accessor(String field) {
+        if (field.equals(FieldPath.documentId().toString())) return DocumentSnapshot::getId;
+        if (field.endsWith(PARENT_ID_SUFFIX)) return TranslatorUtils::parentId;
+        FieldPath path = FieldPath.of(field.split("\\."));
+        return snapshot -> snapshot.get(path);
+    }
+
+    /**
+     * @return the conversion of raw Firestore values to the given runtime type
+     */
+    public static Function<Object, Object> converter(Class<?> type) {
+        if (type == null || type == Object.class) return RowMaterializer::toArrays;
+        if (type.isArray()) return value -> value instanceof List ? toArray((List<?>) value, type.getComponentType()) : value;
+        if (type == String.class) return RowMaterializer::toText;
+        if (type == java.sql.Timestamp.class) return value -> value instanceof Timestamp ? ((Timestamp) value).toSqlTimestamp() : value;
+        if (type == java.sql.Date.class) return value -> value instanceof Timestamp ? new java.sql.Date(((Timestamp) value).toDate().getTime()) : value;
+        if (type == byte[].class) return value -> value instanceof Blob ? ((Blob) value).toBytes() : value;
+        if (Number.class.isAssignableFrom(type)) return value -> value instanceof Number ? toNumber((Number) value, type) : value;
+        return RowMaterializer::toArrays;
+    }
+
+    private static Object toArrays(Object value) {
+        return value instanceof List ? ((List<?>) value).toArray() : value;
+    }
+
+    private static Object toArray(List<?> values, Class<?> componentType) {
+        Function<Object, Object> elementConverter = converter(componentType);
+        Object[] array = (Object[]) java.lang.reflect.Array.newInstance(componentType.isPrimitive() ? Object.class : componentType, values.size());
+        for (int i = 0; i < array.length; i++) {
+            array[i] = elementConverter.apply(values.get(i));
+        }
+        return array;
+    }
+
+    /**
+     * Renders scalar values as text. Arrays and maps are left to Teiid as they were before, an array as
+     * {@code Object[]} and a map as is.
+     */
+    private static Object toText(Object value) {
+        if (value == null || value instanceof String || value instanceof Map) return value;
+        if (value instanceof List) return ((List<?>) value).toArray();
+        if (value instanceof DocumentReference) return ((DocumentReference) value).getPath();
+        if (value instanceof GeoPoint) return ((GeoPoint) value).getLatitude() + "," + ((GeoPoint) value).getLongitude();
+        return String.valueOf(value);
+    }
+
+    private static Object toNumber(Number value, Class<?> type) {
+        if (type.isInstance(value)) return value;
+        if (type == Integer.class) return value.intValue();
+        if (type == Long.class) return value.longValue();
+        if (type == Short.class) return value.shortValue();
+        if (type == Byte.class) return value.byteValue();
+        if (type == Double.class) return value.doubleValue();
+        if (type == Float.class) return value.floatValue();
+        if (type == BigDecimal.class) return value instanceof Long ? BigDecimal.valueOf(value.longValue()) : BigDecimal.valueOf(value.doubleValue());
+        if (type == BigInteger.class) return BigInteger.valueOf(value.longValue());
+        return value;
+    }
+}
@@ -1,6 +1,7 @@
 package com.teiid.firestore.translator.common;
 
-import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import org.apache.commons.lang3.StringUtils;
 import org.teiid.language.Expression;
 import org.teiid.language.Literal;
@@ -8,20 +9,37 @@ import org.teiid.language.MetadataReference;
 import org.teiid.language.NamedTable;
 import org.teiid.metadata.Column;
 
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
 public class TranslatorUtils {
     public static final String PARENT_ID_SUFFIX = "__parent_name__";
+    public static final String PAGE_SIZE = "PAGE_SIZE";
+    public static final String ADAPTIVE_PAGING = "ADAPTIVE_PAGING";
+    public static final String CACHE_TTL = "CACHE_TTL";
+    public static final String REPLICATED = "REPLICATED";
+    public static final String UPSERT_MODE = "UPSERT_MODE";
 
     public static String nameInSource(MetadataReference reference) {
         return reference.getMetadataObject().getNameInSource();
     }
 
-    public static String parentId(QueryDocumentSnapshot document) {
+    public static String parentId(DocumentSnapshot document) {
         return Objects.requireNonNull(document.getReference().getParent().getParent()).getId();
     }
 
+    /**
+     * Reads a column value from the document, resolving the document id and parentId pseudo-fields.
+     */
+    public static Object fieldValue(DocumentSnapshot document, String field) {
+        if (field.equals(FieldPath.documentId().toString())) return document.getId();
+        if (field.endsWith(PARENT_ID_SUFFIX)) return parentId(document);
+        return document.get(field);
+    }
+
     public static Optional<Column> parentIdColumnMetadata(NamedTable table) {
         return table.getMetadataObject().getColumns().stream()
                 .filter(c -> c.getNameInSource().endsWith(PARENT_ID_SUFFIX))
@@ -32,6 +50,23 @@ public class TranslatorUtils {
         return parentIdColumn.getNameInSource().replace(PARENT_ID_SUFFIX, StringUtils.EMPTY);
     }
 
+    @Nullable
+    public static String tableOption(NamedTable table, String option) {
+        return table.getMetadataObject().getProperty(option, false);
+    }
+
+    /**
+     * Puts the value under a dotted field path, creating or merging the intermediate maps.
+     */
+    @SuppressWarnings("unchecked")
+    public static void putNested(Map<String, Object> target, String[] path, Object value) {
+        Map<String, Object> current = target;
+        for (int i = 0; i < path.length - 1; i++) {
+            current = (Map<String, Object>) current.computeIfAbsent(path[i], key -> new HashMap<String, Object>());
+        }
+        current.put(path[path.length - 1], value);
+    }
+
     public static Object literal(Expression e) {
         return ((Literal) e).getValue();
     }
@@ -0,0 +1,131 @@
+package com.teiid.firestore.translator.common;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces batch commits per table following Firestore's ramp-up guidance: writes to a table start at
+ * {@code initialRate} operations per second, and the ceiling grows by half every five minutes of sustained
+ * traffic. Below the ceiling the rate is adjusted AIMD style, growing a little with every committed batch
+ * and halving whenever Firestore reports throttling or contention. A table left idle for a full ramp-up
+ * interval starts over from the initial rate.
+ * <p>
+ * Commits failing with a retryable status are retried after an exponential backoff with jitter.
+ */
+public class WriteThrottle {
+    private static final long RAMP_UP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final double RAMP_UP_FACTOR = 1.5;
+    private static final double ADDITIVE_INCREASE = 0.1;
+    private static final double MIN_RATE = 10;
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final Set<StatusCode.Code> RETRYABLE = EnumSet.of(
+            StatusCode.Code.RESOURCE_EXHAUSTED, StatusCode.Code.ABORTED, StatusCode.Code.UNAVAILABLE);
+
+    private final double initialRate;
+    private final int maxRetries;
+    private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "firestore-write-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param initialRate operations per second a table starts at; not positive to commit without pacing
+     */
+    public WriteThrottle(double initialRate, int maxRetries) {
+        this.initialRate = initialRate;
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    public Limiter limiter(String table) {
+        return limiters.computeIfAbsent(table, key -> new Limiter());
+    }
+
+    /**
+     * Runs the task after the delay, or right away without one.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        if (delayNanos <= 0) {
+            task.run();
+        } else {
+            executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops taking delayed tasks. Those already scheduled still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @param attempt the number of retries already made
+     */
+    public boolean isRetryable(Throwable error, int attempt) {
+        if (attempt >= maxRetries) return false;
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException) {
+                return RETRYABLE.contains(((ApiException) cause).getStatusCode().getCode());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a delay doubling with every attempt, capped and spread by a random factor between 0.5 and 1.5
+     */
+    public long backoffNanos(int attempt) {
+        long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20));
+        return TimeUnit.MILLISECONDS.toNanos((long) (backoffMillis * (0.5 + ThreadLocalRandom.current().nextDouble())));
+    }
+
+    public final class Limiter {
+        private long rampUpStart = System.nanoTime();
+        private long nextFree = rampUpStart;
+        private double rate = initialRate;
+
+        private Limiter() {
+        }
+
+        /**
+         * Reserves the rate for a batch.
+         *
+         * @return how long to wait before committing it
+         */
+        public synchronized long reserve(int operations) {
+            if (initialRate <= 0) return 0;
+            long now = System.nanoTime();
+            if (now - nextFree > RAMP_UP_INTERVAL_NANOS) {
+                rampUpStart = now;
+                rate = initialRate;
+            }
+            long start = Math.max(now, nextFree);
+            nextFree = start + (long) (operations * TimeUnit.SECONDS.toNanos(1) / Math.min(rate, ceiling(now)));
+            return start - now;
+        }
+
+        public synchronized void committed() {
+            rate = Math.min(ceiling(System.nanoTime()), rate + initialRate * ADDITIVE_INCREASE);
+        }
+
+        public synchronized void throttled() {
+            rate = Math.max(MIN_RATE, Math.min(rate, ceiling(System.nanoTime())) / 2);
+        }
+
+        private double ceiling(long now) {
+            return initialRate * Math.pow(RAMP_UP_FACTOR, (double) ((now - rampUpStart) / RAMP_UP_INTERVAL_NANOS));
+        }
+    }
+}
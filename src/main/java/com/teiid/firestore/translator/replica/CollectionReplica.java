@@ -0,0 +1,109 @@
+package com.teiid.firestore.translator.replica;
+
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.teiid.firestore.translator.common.TranslatorUtils.fieldValue;
+
+/**
+ * Live in-memory copy of a collection, kept current by a Firestore snapshot listener. Each snapshot is
+ * stored column by column in a {@link ReplicaColumns} that is swapped in atomically, so queries never
+ * block the listener and always see a consistent version.
+ */
+public class CollectionReplica implements EventListener<QuerySnapshot> {
+    private final String[] fields;
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    private final ListenerRegistration registration;
+    private volatile ReplicaColumns columns;
+    private volatile long lastSnapshotTime;
+    private volatile boolean listening = true;
+
+    public CollectionReplica(Query source, String[] fields) {
+        this(fields, source::addSnapshotListener);
+    }
+
+    /**
+     * Creates a replica fed only by the snapshots passed to {@link #onEvent}, such as snapshots read
+     * by a query.
+     */
+    public CollectionReplica(String[] fields) {
+        this(fields, listener -> () -> {
+        });
+    }
+
+    private CollectionReplica(String[] fields, Function<CollectionReplica, ListenerRegistration> listen) {
+        this.fields = fields;
+        for (int i = 0; i < fields.length; i++) {
+            fieldIndexes.put(fields[i], i);
+        }
+        this.registration = listen.apply(this);
+    }
+
+    @Override
+    public void onEvent(QuerySnapshot snapshot, FirestoreException error) {
+        if (!listening) return;
+        if (error != null) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, "Replica listener failed, falling back to queries: " + error.getMessage());
+            listening = false;
+            columns = null;
+            return;
+        }
+        List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+        Object[][] values = new Object[fields.length][documents.size()];
+        for (int row = 0; row < documents.size(); row++) {
+            QueryDocumentSnapshot document = documents.get(row);
+            for (int column = 0; column < fields.length; column++) {
+                values[column][row] = fieldValue(document, fields[column]);
+            }
+        }
+        ReplicaColumns update = new ReplicaColumns(fieldIndexes, values, documents.size());
+        synchronized (this) {
+            if (!listening) return;
+            columns = update;
+            lastSnapshotTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the current contents, or {@code null} until the first snapshot arrives or after the listener failed
+     */
+    public ReplicaColumns getColumns() {
+        return columns;
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * Time since the last snapshot was applied. The listener only delivers snapshots on changes, so
+     * while {@link #isListening()} this is the age of the last change rather than of the data.
+     */
+    public long getSnapshotAgeMillis() {
+        return columns == null ? Long.MAX_VALUE : System.currentTimeMillis() - lastSnapshotTime;
+    }
+
+    public long getEstimatedMemoryBytes() {
+        ReplicaColumns current = columns;
+        return current == null ? 0 : current.getEstimatedMemoryBytes();
+    }
+
+    public void close() {
+        synchronized (this) {
+            listening = false;
+            columns = null;
+        }
+        registration.remove();
+    }
+}
@@ -0,0 +1,174 @@
+package com.teiid.firestore.translator.replica;
+
+import com.teiid.firestore.translator.common.TranslatorUtils;
+import org.teiid.language.*;
+import org.teiid.translator.TranslatorException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.teiid.firestore.translator.common.DocumentComparator.compareValues;
+import static com.teiid.firestore.translator.common.TranslatorUtils.*;
+
+/**
+ * Immutable column-oriented version of a replicated collection. Conditions are evaluated locally, so
+ * predicates Firestore can't run, such as {@code !=} and infix LIKE, are answered as well.
+ */
+public class ReplicaColumns {
+    private static final long REFERENCE_BYTES = 8;
+    private static final long OBJECT_BYTES = 16;
+
+    private final Map<String, Integer> fieldIndexes;
+    private final Object[][] values;
+    private final int rowCount;
+    private final long estimatedMemoryBytes;
+
+    ReplicaColumns(Map<String, Integer> fieldIndexes, Object[][] values, int rowCount) {
+        this.fieldIndexes = fieldIndexes;
+        this.values = values;
+        this.rowCount = rowCount;
+        this.estimatedMemoryBytes = Arrays.stream(values)
+                .flatMap(Arrays::stream)
+                .mapToLong(ReplicaColumns::estimateBytes)
+                .sum();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getEstimatedMemoryBytes() {
+        return estimatedMemoryBytes;
+    }
+
+    /**
+     * @return the matching rows with the raw field values of the projected columns
+     */
+    public Iterator<List<Object>> query(Condition where, OrderBy orderBy, Limit limit, String[] projection) throws TranslatorException {
+        IntPredicate predicate = where != null ? predicate(where) : row -> true;
+        IntStream rows = IntStream.range(0, rowCount).filter(predicate);
+        if (orderBy != null) {
+            Comparator<Integer> comparator = comparator(orderBy);
+            rows = rows.boxed().sorted(comparator).mapToInt(Integer::intValue);
+        }
+        if (limit != null) {
+            rows = rows.limit(limit.getRowLimit());
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = column(projection[i]);
+        }
+        return rows.<List<Object>>mapToObj(row -> Arrays.stream(columns)
+                .mapToObj(column -> values[column][row])
+                .collect(Collectors.toCollection(ArrayList::new)))
+                .iterator();
+    }
+
+    private IntPredicate predicate(Condition where) throws TranslatorException {
+        if (where instanceof AndOr) {
+            AndOr andOr = (AndOr) where;
+            IntPredicate left = predicate(andOr.getLeftCondition());
+            IntPredicate right = predicate(andOr.getRightCondition());
+            return andOr.getOperator() == AndOr.Operator.AND ? left.and(right) : left.or(right);
+        } else if (where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            if (comparison.getLeftExpression() instanceof Function) {
+                return functionPredicate((Function) comparison.getLeftExpression(), (Boolean) literal(comparison.getRightExpression()));
+            }
+            Object[] column = values[column(comparison.getLeftExpression())];
+            Object value = literal(comparison.getRightExpression());
+            switch (comparison.getOperator()) {
+                case EQ:
+                    return row -> column[row] != null && compareValues(column[row], value) == 0;
+                case NE:
+                    return row -> column[row] != null && compareValues(column[row], value) != 0;
+                case LT:
+                    return row -> column[row] != null && compareValues(column[row], value) < 0;
+                case LE:
+                    return row -> column[row] != null && compareValues(column[row], value) <= 0;
+                case GT:
+                    return row -> column[row] != null && compareValues(column[row], value) > 0;
+                case GE:
+                    return row -> column[row] != null && compareValues(column[row], value) >= 0;
+            }
+        } else if (where instanceof In) {
+            In in = (In) where;
+            Object[] column = values[column(in.getLeftExpression())];
+            List<Object> candidates = in.getRightExpressions().stream().map(TranslatorUtils::literal).collect(Collectors.toList());
+            IntPredicate contained = row -> column[row] != null && candidates.stream().anyMatch(candidate -> compareValues(column[row], candidate) == 0);
+            return in.isNegated() ? row -> column[row] != null && !contained.test(row) : contained;
+        } else if (where instanceof Like) {
+            Like like = (Like) where;
+            Object[] column = values[column(like.getLeftExpression())];
+            Pattern pattern = likePattern((String) literal(like.getRightExpression()), like.getEscapeCharacter());
+            IntPredicate matches = row -> column[row] instanceof String && pattern.matcher((String) column[row]).matches();
+            return like.isNegated() ? row -> column[row] instanceof String && !matches.test(row) : matches;
+        }
+        throw new TranslatorException("Unsupported where clause");
+    }
+
+    private IntPredicate functionPredicate(Function function, boolean expected) throws TranslatorException {
+        Object[] column = values[column(function.getParameters().get(0))];
+        Expression argument = function.getParameters().get(1);
+        List<Object> candidates = argument instanceof Array ?
+                ((Array) argument).getExpressions().stream().map(TranslatorUtils::literal).collect(Collectors.toList()) :
+                List.of(literal(argument));
+        IntPredicate contains = row -> column[row] instanceof List &&
+                ((List<?>) column[row]).stream().anyMatch(element -> candidates.stream().anyMatch(candidate -> compareValues(element, candidate) == 0));
+        return expected ? contains : contains.negate();
+    }
+
+    private Comparator<Integer> comparator(OrderBy orderBy) throws TranslatorException {
+        Comparator<Integer> comparator = (left, right) -> 0;
+        for (SortSpecification sortSpecification : orderBy.getSortSpecifications()) {
+            Object[] column = values[column(sortSpecification.getExpression())];
+            Comparator<Integer> byColumn = (left, right) -> compareValues(column[left], column[right]);
+            comparator = comparator.thenComparing(sortSpecification.getOrdering() == SortSpecification.Ordering.DESC ? byColumn.reversed() : byColumn);
+        }
+        return comparator;
+    }
+
+    private int column(Expression expression) throws TranslatorException {
+        return column(nameInSource((MetadataReference<?>) expression));
+    }
+
+    private int column(String field) throws TranslatorException {
+        Integer index = fieldIndexes.get(field);
+        if (index == null) throw new TranslatorException("Column " + field + " is not replicated");
+        return index;
+    }
+
+    static Pattern likePattern(String pattern, Character escape) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (escape != null && c == escape && i + 1 < pattern.length()) {
+                regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static long estimateBytes(Object value) {
+        if (value == null) return REFERENCE_BYTES;
+        if (value instanceof String) return REFERENCE_BYTES + OBJECT_BYTES + 2L * ((String) value).length();
+        if (value instanceof List) {
+            return REFERENCE_BYTES + OBJECT_BYTES + ((List<?>) value).stream().mapToLong(ReplicaColumns::estimateBytes).sum();
+        }
+        return REFERENCE_BYTES + OBJECT_BYTES;
+    }
+}
@@ -120,6 +120,16 @@ public class FirestoreInsertTranslatorTest {
         assertArrayEquals(new String[]{"A", "B", "C"}, select.stream().map(m -> m.get("city_name")).sorted().toArray());
     }
 
+    @Test
+    public void shouldMergeInsertedFieldsWhenUpsertingExistingDocument() {
+        template.update("INSERT INTO CountriesT (id, country_name, country_capital, test) VALUES ('upsertId', 'Norway', 'Bergen', true)");
+        int rowsAffected = template.update("UPSERT INTO CountriesT (id, country_capital, test) VALUES ('upsertId', 'Oslo', true)");
+        assertEquals(1, rowsAffected);
+        Map<String, Object> upserted = template.queryForMap("SELECT country_name, country_capital FROM CountriesT WHERE id = 'upsertId'");
+        assertEquals("Norway", upserted.get("country_name"));
+        assertEquals("Oslo", upserted.get("country_capital"));
+    }
+
     @Test(expected = UncategorizedSQLException.class)
     public void shouldThrowExceptionWhenInsertingToSubCollectionWithoutParentId() {
         String query = "INSERT INTO CitiesT (city_name, test) VALUES ('A', true), ('B', true), ('C', true)";
@@ -49,7 +49,14 @@ public class FirestoreSelectTranslatorTest {
         assertEquals("Ukraine", result.get(0).get("country_name"));
     }
 
-    //Document Id is not supported for 'WHERE IN' conditions
+    @Test
+    public void shouldSkipMissingDocumentsWhenSelectingByDocumentIds() {
+        String query = "SELECT id FROM CountriesT WHERE id IN ('8B29ww4lnHkrbWL0XH10', 'missingDocumentId')";
+        List<Map<String, Object>> result = template.queryForList(query);
+        assertEquals(1, result.size());
+        assertEquals("8B29ww4lnHkrbWL0XH10", result.get(0).get("id"));
+    }
+
     @Test
     public void shouldReturnFilteredDocumentWhenSelectingWithInCondition() {
         String query = "SELECT * FROM CountriesT WHERE country_name IN ('Italy', 'Ukraine', 'Sweden')";
@@ -139,4 +146,19 @@ public class FirestoreSelectTranslatorTest {
         List<Map<String, Object>> result = template.queryForList(query);
         assertEquals("Dnipro", result.get(0).get("city_name"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReturnTopRecordsWhenOrderingSubCollectionGroupByParentIdWithLimit() {
+        String query = "SELECT city_name, parent_id FROM CitiesT ORDER BY parent_id DESC LIMIT 1";
+        List<Map<String, Object>> result = template.queryForList(query);
+        assertEquals(1, result.size());
+        assertEquals("nf7JODgYVpyqyVWdkHng", result.get(0).get("parent_id"));
+    }
+
+    @Test
+    public void shouldReturnDocumentsMatchingAnyBranchWhenSelectingWithOrCondition() {
+        String query = "SELECT country_name FROM CountriesT WHERE country_name = 'Spain' OR right_side_driving = true";
+        List<Map<String, Object>> result = template.queryForList(query);
+        assertArrayEquals(new String[]{"Spain", "Ukraine"}, result.stream().map(m -> m.get("country_name")).sorted().toArray());
+    }
+}
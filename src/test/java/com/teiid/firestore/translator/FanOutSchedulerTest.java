@@ -0,0 +1,108 @@
+package com.teiid.firestore.translator;
+
+import com.teiid.firestore.translator.common.FanOutScheduler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutSchedulerTest {
+    private FanOutScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldAdmitLanesInTurn() throws Exception {
+        scheduler = new FanOutScheduler(1, 10, false);
+        FanOutScheduler.Lane first = scheduler.lane("first");
+        FanOutScheduler.Lane second = scheduler.lane("second");
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(7);
+        BlockingQueue<Runnable> held = new LinkedBlockingQueue<>();
+        // the first call holds the only slot until every call is queued
+        first.submit(release -> {
+            started.add("first1");
+            held.add(release);
+            done.countDown();
+        });
+        for (int i = 2; i <= 4; i++) submitReleasing(first, "first" + i, started, done);
+        for (int i = 1; i <= 3; i++) submitReleasing(second, "second" + i, started, done);
+        started(held).run();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first1", "first2", "second1", "first3", "second2", "first4", "second3"), started);
+    }
+
+    @Test
+    public void shouldCapRunningCallsGloballyAndPerLane() throws Exception {
+        scheduler = new FanOutScheduler(3, 2, false);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        BlockingQueue<Runnable> held = new LinkedBlockingQueue<>();
+        List<Runnable> holding = new ArrayList<>();
+        FanOutScheduler.Lane first = scheduler.lane("first");
+        for (int i = 0; i < 5; i++) submitHolding(first, running, maxRunning, held);
+        holding.add(started(held));
+        holding.add(started(held));
+        // the lane has used up its two slots, leaving the third to other lanes
+        assertNull(held.poll(200, TimeUnit.MILLISECONDS));
+        FanOutScheduler.Lane second = scheduler.lane("second");
+        FanOutScheduler.Lane third = scheduler.lane("third");
+        for (int i = 0; i < 5; i++) {
+            submitHolding(second, running, maxRunning, held);
+            submitHolding(third, running, maxRunning, held);
+        }
+        holding.add(started(held));
+        assertNull(held.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(3, running.get());
+        // every release admits exactly one of the twelve queued calls
+        for (int i = 0; i < 12; i++) {
+            holding.remove(0).run();
+            holding.add(started(held));
+        }
+        holding.forEach(Runnable::run);
+        assertEquals(0, running.get());
+        assertEquals(3, maxRunning.get());
+    }
+
+    private static Runnable started(BlockingQueue<Runnable> held) throws InterruptedException {
+        Runnable release = held.poll(5, TimeUnit.SECONDS);
+        assertNotNull(release);
+        return release;
+    }
+
+    private static void submitReleasing(FanOutScheduler.Lane lane, String name, List<String> started, CountDownLatch done) {
+        lane.submit(release -> {
+            started.add(name);
+            release.run();
+            done.countDown();
+        });
+    }
+
+    /**
+     * Submits a call that holds its slot until the runnable it puts on {@code held} is run.
+     */
+    private static void submitHolding(FanOutScheduler.Lane lane, AtomicInteger running, AtomicInteger maxRunning, BlockingQueue<Runnable> held) {
+        lane.submit(release -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            held.add(() -> {
+                running.decrementAndGet();
+                release.run();
+            });
+        });
+    }
+}
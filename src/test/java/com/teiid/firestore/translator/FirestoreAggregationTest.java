@@ -0,0 +1,83 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Select;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static org.junit.Assert.assertEquals;
+import static org.teiid.language.Comparison.Operator.GT;
+
+public class FirestoreAggregationTest {
+    private FirestoreExecutionFactory executionFactory;
+    private CountingDocumentStore store;
+    private FirestoreConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        store = new CountingDocumentStore();
+        Firestore firestore = firestore(store);
+        seedCities(firestore, 3, 300, 1);
+        CollectionReference cities = firestore.collection("countries").document("country0").collection("cities");
+        Map<String, Object> unknownPopulation = new HashMap<>();
+        unknownPopulation.put("name", "Unknown");
+        unknownPopulation.put("population", null);
+        WriteBatch batch = firestore.batch();
+        batch.set(cities.document("unknown"), unknownPopulation);
+        batch.set(cities.document("flagged"), Map.of("name", "Flagged", "population", true));
+        batch.set(cities.document("estimated"), Map.of("name", "Estimated", "population", "about a thousand"));
+        batch.commit().get();
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldReadSingleDocumentForMinSkippingNullsAndOtherTypes() throws Exception {
+        NamedTable cities = cities();
+        List<List<?>> rows = query(executionFactory, connection, aggregate(cities, null, AggregateFunction.MIN, column(cities, "population")));
+        assertEquals(0L, ((Number) rows.get(0).get(0)).longValue());
+        assertEquals(1, store.documentsReturned.get());
+    }
+
+    @Test
+    public void shouldReadSingleDocumentForMaxSkippingOtherTypes() throws Exception {
+        NamedTable cities = cities();
+        List<List<?>> rows = query(executionFactory, connection, aggregate(cities, null, AggregateFunction.MAX, column(cities, "population")));
+        assertEquals(299L, ((Number) rows.get(0).get(0)).longValue());
+        assertEquals(1, store.documentsReturned.get());
+    }
+
+    @Test
+    public void shouldCountRangeMatchesSpanningSeveralKeysOnlyPages() throws Exception {
+        NamedTable cities = cities();
+        List<List<?>> rows = query(executionFactory, connection, aggregate(cities, compare(cities, "population", GT, 5L), AggregateFunction.COUNT, null));
+        assertEquals(3 * 294L, ((Number) rows.get(0).get(0)).longValue());
+        assertEquals(1, rows.size());
+    }
+
+    private static Select aggregate(NamedTable table, Condition where, String function, Expression argument) {
+        List<Expression> parameters = argument != null ? List.of(argument) : Collections.emptyList();
+        AggregateFunction aggregate = new AggregateFunction(function, false, parameters, function.equals(AggregateFunction.COUNT) ? Integer.class : Long.class);
+        return new Select(List.of(new DerivedColumn(null, aggregate)), false, List.of(table), where, null, null, null);
+    }
+}
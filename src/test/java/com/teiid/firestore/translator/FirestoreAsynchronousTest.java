@@ -0,0 +1,131 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.Condition;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Select;
+import org.teiid.language.SetClause;
+import org.teiid.language.SortSpecification;
+import org.teiid.language.Update;
+import org.teiid.translator.DataNotAvailableException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.teiid.language.Comparison.Operator.EQ;
+
+/**
+ * Runs executions the way the engine does when given a {@code dataAvailable} callback: a call throwing
+ * {@link DataNotAvailableException#NO_POLLING} is repeated only once the callback was invoked. Every
+ * Firestore call is delayed, so the executions can't complete without pausing.
+ */
+public class FirestoreAsynchronousTest {
+    private FirestoreExecutionFactory executionFactory;
+    private CountingDocumentStore store;
+    private FirestoreConnection connection;
+    private final Semaphore dataAvailable = new Semaphore(0);
+    private int pauses;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory(executionFactory -> {
+            executionFactory.setStreamingBufferSize(50);
+            executionFactory.setWriteBatchSize(50);
+            executionFactory.setMaxInFlightBatches(1);
+        });
+        store = new CountingDocumentStore();
+        Firestore firestore = firestore(store, 5);
+        seedCities(firestore, 3, 300, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldResumeSelectOnceDataIsAvailable() throws Exception {
+        NamedTable cities = cities();
+        Select select = select(cities, compare(cities, "parent_id", EQ, "country1"),
+                orderBy(cities, "population", SortSpecification.Ordering.ASC), "id", "population");
+        FirestoreSelectExecution execution = new FirestoreSelectExecution(select, connection, executionFactory,
+                dataAvailable::release, executionFactory.getScheduler().lane("select"));
+        execution.execute();
+        List<List<?>> rows = new ArrayList<>();
+        for (List<?> row = nextRow(execution); row != null; row = nextRow(execution)) {
+            rows.add(row);
+        }
+        execution.close();
+        assertEquals(300, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals((long) i, rows.get(i).get(1));
+        }
+        assertTrue(pauses > 0);
+    }
+
+    @Test
+    public void shouldResumeUpdateOnceWritesComplete() throws Exception {
+        NamedTable cities = cities();
+        Condition country = compare(cities, "parent_id", EQ, "country1");
+        assertArrayEquals(new int[]{300}, updateCounts(new Update(cities, List.of(new SetClause(column(cities, "city_name"), literal("Renamed"))), country)));
+        assertTrue(pauses > 0);
+        List<List<?>> rows = query(executionFactory, connection, select(cities, country, null, "city_name"));
+        assertEquals(300, rows.size());
+        rows.forEach(row -> assertEquals("Renamed", row.get(0)));
+    }
+
+    @Test
+    public void shouldResumeKeyedUpdateOnceLookupsComplete() throws Exception {
+        executionFactory.setKeyedUpdatePrecondition(true);
+        executionFactory.setPointLookupBatchSize(1);
+        NamedTable cities = cities();
+        Condition keys = and(compare(cities, "parent_id", EQ, "country2"), in(cities, "id", "city1", "city2", "missing"));
+        assertArrayEquals(new int[]{2}, updateCounts(new Update(cities, List.of(new SetClause(column(cities, "city_name"), literal("Renamed"))), keys)));
+        assertTrue(pauses > 0);
+        assertTrue(store.batchGets.get() > 0);
+        assertEquals(2, query(executionFactory, connection, select(cities, compare(cities, "city_name", EQ, "Renamed"), null, "id")).size());
+    }
+
+    private int[] updateCounts(Update update) throws Exception {
+        FirestoreUpdateExecution execution = new FirestoreUpdateExecution(update, connection, executionFactory,
+                dataAvailable::release, executionFactory.getScheduler().lane("update"));
+        execution.execute();
+        while (true) {
+            try {
+                int[] updateCounts = execution.getUpdateCounts();
+                execution.close();
+                return updateCounts;
+            } catch (DataNotAvailableException e) {
+                awaitDataAvailable(e);
+            }
+        }
+    }
+
+    private List<?> nextRow(FirestoreSelectExecution execution) throws Exception {
+        while (true) {
+            try {
+                return execution.next();
+            } catch (DataNotAvailableException e) {
+                awaitDataAvailable(e);
+            }
+        }
+    }
+
+    private void awaitDataAvailable(DataNotAvailableException e) throws InterruptedException {
+        assertSame(DataNotAvailableException.NO_POLLING, e);
+        pauses++;
+        assertTrue("dataAvailable wasn't invoked", dataAvailable.tryAcquire(5, TimeUnit.SECONDS));
+    }
+}
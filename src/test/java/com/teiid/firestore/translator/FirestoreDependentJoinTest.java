@@ -0,0 +1,84 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.Comparison;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Parameter;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FirestoreDependentJoinTest {
+    private FirestoreExecutionFactory executionFactory;
+    private FirestoreConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        executionFactory.setDependentJoinBatchSize(1);
+        Firestore firestore = firestore(new CountingDocumentStore());
+        seedCities(firestore, 3, 300, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldMergeOverlappingBatchesInOrderWithoutDuplicates() throws Exception {
+        NamedTable cities = cities();
+        Parameter parameter = new Parameter();
+        parameter.setType(Long.class);
+        parameter.setValueIndex(0);
+        parameter.setDependentValueId("populations");
+        Select select = select(cities, new Comparison(column(cities, "population"), parameter, Comparison.Operator.LT),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "id", "population");
+        select.setDependentValues(Map.of("populations", List.of(List.of(3L), List.of(5L), List.of(8L), List.of(2L))));
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(3 * 8, rows.size());
+        assertEquals(rows.size(), new HashSet<>(rows).size());
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue((Long) rows.get(i - 1).get(2) >= (Long) rows.get(i).get(2));
+        }
+    }
+
+    @Test
+    public void shouldReturnTimestampsOfOverlappingBatchesOnce() throws Exception {
+        Firestore firestore = firestore(new CountingDocumentStore());
+        seedEvents(firestore, 20);
+        NamedTable events = events();
+        Parameter parameter = new Parameter();
+        parameter.setType(java.sql.Timestamp.class);
+        parameter.setValueIndex(0);
+        parameter.setDependentValueId("hours");
+        Map<String, List<? extends List<?>>> hours = Map.of("hours",
+                List.of(List.of(hour(10).toSqlTimestamp()), List.of(hour(5).toSqlTimestamp()), List.of(hour(12).toSqlTimestamp())));
+        Comparison before = new Comparison(column(events, "happened"), parameter, Comparison.Operator.LT);
+
+        Select select = select(events, before, null, "id");
+        select.setDependentValues(hours);
+        List<List<?>> rows = query(executionFactory, connection(firestore), select);
+        assertEquals(12, rows.size());
+        assertEquals(12, new HashSet<>(rows).size());
+
+        select = limited(select(events, before, orderBy(events, "happened", SortSpecification.Ordering.DESC), "id"), 7);
+        select.setDependentValues(hours);
+        rows = query(executionFactory, connection(firestore), select);
+        assertEquals(7, rows.size());
+        assertEquals(List.of("event11"), rows.get(0));
+        assertEquals(List.of("event5"), rows.get(6));
+    }
+}
@@ -0,0 +1,150 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.Array;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.Expression;
+import org.teiid.language.Function;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.teiid.language.Comparison.Operator.EQ;
+import static org.teiid.language.Comparison.Operator.GE;
+import static org.teiid.language.Comparison.Operator.GT;
+import static org.teiid.language.Comparison.Operator.LT;
+
+public class FirestoreFanOutTest {
+    private FirestoreExecutionFactory executionFactory;
+    private FirestoreConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        Firestore firestore = firestore(new CountingDocumentStore());
+        seedCities(firestore, 3, 300, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldSkipDocumentsReturnedByEarlierDisjuncts() throws Exception {
+        NamedTable cities = cities();
+        Select select = select(cities, overlappingDisjunction(cities), null, "parent_id", "id");
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(3 * 14, rows.size());
+        assertEquals(rows.size(), distinct(rows).size());
+    }
+
+    @Test
+    public void shouldMergeOverlappingDisjunctsInOrder() throws Exception {
+        executionFactory.setMaxParallelQueries(1);
+        NamedTable cities = cities();
+        Select select = select(cities, overlappingDisjunction(cities),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "id", "population");
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(3 * 14, rows.size());
+        assertEquals(rows.size(), distinct(rows).size());
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue((Long) rows.get(i - 1).get(2) >= (Long) rows.get(i).get(2));
+        }
+    }
+
+    @Test
+    public void shouldMergeParentFanOutOpenedInWaves() throws Exception {
+        executionFactory.setMaxParallelQueries(1);
+        NamedTable cities = cities();
+        Select select = limited(select(cities, in(cities, "parent_id", "country0", "country1", "country2"),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "population"), 5);
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(5, rows.size());
+        assertEquals(299L, rows.get(0).get(1));
+        assertEquals(299L, rows.get(2).get(1));
+        assertEquals(298L, rows.get(3).get(1));
+    }
+
+    @Test
+    public void shouldSkipTimestampsReturnedByEarlierDisjuncts() throws Exception {
+        Firestore firestore = firestore(new CountingDocumentStore());
+        seedEvents(firestore, 20);
+        NamedTable events = events();
+        Condition overlapping = or(compare(events, "happened", LT, hour(10).toSqlTimestamp()), compare(events, "happened", GE, hour(5).toSqlTimestamp()));
+        List<List<?>> rows = query(executionFactory, connection(firestore), select(events, overlapping, null, "id"));
+        assertEquals(20, rows.size());
+        assertEquals(20, new HashSet<>(rows).size());
+        rows = query(executionFactory, connection(firestore), select(events, overlapping, orderBy(events, "happened", SortSpecification.Ordering.ASC), "id"));
+        assertEquals(20, rows.size());
+        assertEquals(20, new HashSet<>(rows).size());
+    }
+
+    @Test
+    public void shouldSplitLongInListsIntoChunksReturningEachDocumentOnce() throws Exception {
+        NamedTable cities = cities();
+        // City 0 to City 4 are listed in the first and the third chunk of ten
+        Object[] names = IntStream.range(0, 25).mapToObj(i -> "City " + i % 20).toArray();
+        List<List<?>> rows = query(executionFactory, connection, select(cities, in(cities, "city_name", names), null, "parent_id", "id"));
+        assertEquals(3 * 20, rows.size());
+        assertEquals(rows.size(), distinct(rows).size());
+
+        rows = query(executionFactory, connection, limited(select(cities, in(cities, "city_name", names),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "id", "population"), 10));
+        assertEquals(10, rows.size());
+        assertEquals(rows.size(), distinct(rows).size());
+        assertEquals(19L, rows.get(0).get(2));
+        assertEquals(16L, rows.get(9).get(2));
+    }
+
+    @Test
+    public void shouldSplitLongArrayContainsAnyListsIntoChunksReturningEachDocumentOnce() throws Exception {
+        Firestore firestore = firestore(new CountingDocumentStore());
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < 30; i++) {
+            batch.set(firestore.collection("posts").document("post" + i),
+                    Map.of("title", "Post " + i, "tags", List.of("tag" + i % 12, "tag" + (i + 5) % 12)));
+        }
+        batch.commit().get();
+        NamedTable posts = table("PostsT", "posts", new String[][]{{"id", "__name__"}, {"title", "title"}, {"tags", "tags"}},
+                new Class<?>[]{String.class, String.class, Object.class});
+        // tag0 to tag9 make the first chunk and tag10 and tag11 the second; posts tagged from both match twice
+        List<Expression> tags = IntStream.range(0, 12).mapToObj(i -> literal("tag" + i)).collect(Collectors.toList());
+        Condition tagged = new Comparison(new Function("array_contains_any", List.of(column(posts, "tags"), new Array(String.class, tags)), Boolean.class),
+                literal(true), EQ);
+        List<List<?>> rows = query(executionFactory, connection(firestore), select(posts, tagged, null, "id", "title"));
+        assertEquals(30, rows.size());
+        assertEquals(rows.size(), distinct(rows).size());
+    }
+
+    /**
+     * Matches cities 0 to 9 and 296 to 299 of every country; City 5 is matched twice.
+     */
+    private static Condition overlappingDisjunction(NamedTable cities) {
+        return or(or(compare(cities, "population", LT, 10L), compare(cities, "population", GT, 295L)),
+                compare(cities, "city_name", EQ, "City 5"));
+    }
+
+    private static Set<List<?>> distinct(List<List<?>> rows) {
+        Set<List<?>> keys = new HashSet<>();
+        rows.forEach(row -> keys.add(row.subList(0, 2)));
+        return keys;
+    }
+}
@@ -0,0 +1,62 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.NamedTable;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static com.teiid.firestore.translator.common.TranslatorUtils.CACHE_TTL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.teiid.language.Comparison.Operator.EQ;
+
+public class FirestoreMetricsTest {
+    private FirestoreConnection connection;
+    private FirestoreExecutionFactory executionFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        Firestore firestore = firestore(new InMemoryDocumentStore());
+        seedCities(firestore, 2, 50, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        if (executionFactory != null) executionFactory.stop();
+    }
+
+    @Test
+    public void shouldPublishToTheGivenRegistry() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        executionFactory = executionFactory(executionFactory -> executionFactory.setMeterRegistry(registry));
+        NamedTable cities = cities(CACHE_TTL, "60000");
+        assertEquals(50, query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country0"), null, "id")).size());
+        assertEquals(1, registry.find("firestore.query").tag("table", "cities").timer().count());
+        assertEquals(50, registry.find("firestore.rows.returned").tag("table", "cities").counter().count(), 0);
+        assertEquals(1, registry.find("firestore.cache.entries").gauge().value(), 0);
+        assertEquals(1, registry.find("firestore.cache.misses").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void shouldPublishToTheGlobalRegistryByDefault() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            executionFactory = executionFactory();
+            NamedTable cities = cities();
+            assertEquals(100, query(executionFactory, connection, select(cities, null, null, "id")).size());
+            assertNotNull(registry.find("firestore.query").tag("table", "cities").timer());
+            assertNotNull(registry.find("firestore.documents.read").tag("table", "cities").counter());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.NamedTable;
+import org.teiid.language.OrderBy;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+import org.teiid.translator.ResultSetExecution;
+
+import java.util.List;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static com.teiid.firestore.translator.common.TranslatorUtils.PAGE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.teiid.language.Comparison.Operator.EQ;
+import static org.teiid.language.Comparison.Operator.GE;
+import static org.teiid.language.Comparison.Operator.GT;
+
+public class FirestorePagingTest {
+    private FirestoreExecutionFactory executionFactory;
+    private CountingDocumentStore store;
+    private FirestoreConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        store = new CountingDocumentStore();
+        Firestore firestore = firestore(store);
+        seedCities(firestore, 3, 300, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldPageRangeScanNotProjectingTheRangeField() throws Exception {
+        NamedTable cities = cities(PAGE_SIZE, "100");
+        Select select = select(cities, compare(cities, "population", GT, 5L), null, "city_name");
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(3 * 294, rows.size());
+    }
+
+    @Test
+    public void shouldPageSubCollectionRangeScanNotProjectingTheRangeField() throws Exception {
+        NamedTable cities = cities(PAGE_SIZE, "50");
+        Select select = select(cities, and(compare(cities, "parent_id", EQ, "country1"),
+                compare(cities, "population", GT, 99L)), null, "id");
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(200, rows.size());
+    }
+
+    @Test
+    public void shouldPageOrderedScanNotProjectingTheOrderedField() throws Exception {
+        NamedTable cities = cities(PAGE_SIZE, "100");
+        Select select = select(cities, null, orderBy(cities, "population", SortSpecification.Ordering.DESC), "city_name", "parent_id");
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(900, rows.size());
+        for (int i = 1; i < rows.size(); i++) {
+            int previous = Integer.parseInt(((String) rows.get(i - 1).get(0)).substring("City ".length()));
+            int current = Integer.parseInt(((String) rows.get(i).get(0)).substring("City ".length()));
+            assertTrue(previous >= current);
+        }
+    }
+
+    @Test
+    public void shouldNarrowOrderedCollectionGroupToParentIdRange() throws Exception {
+        NamedTable cities = cities();
+        Select select = limited(select(cities, compare(cities, "parent_id", GE, "country1"),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "city_name"), 5);
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(5, rows.size());
+        assertEquals("City 299", rows.get(0).get(1));
+        assertEquals("City 298", rows.get(2).get(1));
+        rows.forEach(row -> assertTrue(((String) row.get(0)).compareTo("country1") >= 0));
+        assertEquals(600, store.documentsReturned.get());
+    }
+
+    @Test
+    public void shouldStreamCollectionGroupOrderedByParentId() throws Exception {
+        executionFactory.setStreamingBufferSize(10);
+        NamedTable cities = cities();
+        OrderBy orderBy = orderBy(cities, "parent_id", SortSpecification.Ordering.DESC);
+        orderBy.getSortSpecifications().add(new SortSpecification(SortSpecification.Ordering.ASC, column(cities, "population")));
+        Select select = select(cities, null, orderBy, "parent_id", "city_name");
+        assertEquals(List.of("country2", "City 0"), firstRow(select));
+        assertTrue(store.documentsReturned.get() < 900);
+
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(900, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(List.of("country" + (2 - i / 300), "City " + i % 300), rows.get(i));
+        }
+    }
+
+    @Test
+    public void shouldStreamOrderedCollectionGroupFilteredByParentIdWithoutLimit() throws Exception {
+        executionFactory.setStreamingBufferSize(10);
+        NamedTable cities = cities();
+        Select select = select(cities, compare(cities, "parent_id", GE, "country1"),
+                orderBy(cities, "population", SortSpecification.Ordering.DESC), "parent_id", "city_name");
+        assertEquals("City 299", firstRow(select).get(1));
+        assertTrue(store.documentsReturned.get() < 100);
+
+        List<List<?>> rows = query(executionFactory, connection, select);
+        assertEquals(600, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertTrue(((String) rows.get(i).get(0)).compareTo("country1") >= 0);
+            assertEquals("City " + (299 - i / 2), rows.get(i).get(1));
+        }
+    }
+
+    private List<?> firstRow(Select select) throws Exception {
+        ResultSetExecution execution = executionFactory.createResultSetExecution(select, null, null, connection);
+        execution.execute();
+        List<?> row = execution.next();
+        execution.close();
+        return row;
+    }
+
+    @Test
+    public void shouldStopReadingPagesWhenClosedMidStream() throws Exception {
+        executionFactory.setStreamingBufferSize(10);
+        NamedTable cities = cities();
+        ResultSetExecution execution = executionFactory.createResultSetExecution(select(cities, null, null, "id"), null, null, connection);
+        execution.execute();
+        for (int i = 0; i < 15; i++) {
+            assertNotNull(execution.next());
+        }
+        execution.close();
+        int queries = store.queries.get();
+        Thread.sleep(200);
+        assertEquals(queries, store.queries.get());
+        assertTrue(queries <= 3);
+        assertTrue(store.documentsReturned.get() < 100);
+    }
+
+    @Test
+    public void shouldReadWholeResultInPagesWithoutPageSizeOption() throws Exception {
+        executionFactory.setStreamingBufferSize(10);
+        NamedTable cities = cities();
+        assertEquals(900, query(executionFactory, connection, select(cities, null, null, "id", "city_name")).size());
+        assertTrue(store.queries.get() > 1);
+        assertEquals(900, store.documentsReturned.get());
+    }
+}
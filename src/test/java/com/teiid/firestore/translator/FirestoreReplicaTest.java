@@ -0,0 +1,114 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.translator.replica.CollectionReplica;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.Like;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Select;
+import org.teiid.metadata.Column;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static com.teiid.firestore.translator.common.TranslatorUtils.REPLICATED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.teiid.language.Comparison.Operator.EQ;
+import static org.teiid.language.Comparison.Operator.GE;
+import static org.teiid.language.Comparison.Operator.GT;
+import static org.teiid.language.Comparison.Operator.LT;
+import static org.teiid.language.SortSpecification.Ordering.DESC;
+
+/**
+ * Runs the same commands against a replica and against Firestore. The in-memory Firestore doesn't serve
+ * the listen RPC, so the replicas are fed the snapshot of a query instead of a listener.
+ */
+public class FirestoreReplicaTest {
+    private Firestore firestore;
+    private FirestoreConnection connection;
+    private FirestoreExecutionFactory executionFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        firestore = firestore(new InMemoryDocumentStore());
+        seedCities(firestore, 3, 40, 10);
+        connection = connection(firestore);
+        executionFactory = executionFactory();
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldReturnTheRowsOfQueries() throws Exception {
+        NamedTable cities = cities();
+        NamedTable replicated = replicate(cities(REPLICATED, "true"), firestore.collectionGroup("cities").get().get());
+        assertSameRows(cities, replicated, table -> select(table, compare(table, "parent_id", EQ, "country1"), null, "id", "population"));
+        assertSameRows(cities, replicated, table -> select(table, compare(table, "population", GT, 250L), null, "id", "parent_id"));
+        assertSameRows(cities, replicated, table -> select(table, in(table, "city_name", "City 3", "City 7", "City 39"), null, "id", "parent_id"));
+        assertSameRows(cities, replicated, table -> select(table,
+                or(compare(table, "population", LT, 50L), compare(table, "parent_id", EQ, "country2")), null, "id", "parent_id"));
+        assertSameRows(cities, replicated, table -> select(table,
+                new Like(column(table, "city_name"), literal("City 1%"), null, false), null, "id", "parent_id"));
+        assertSameRows(cities, replicated, table -> limited(select(table, compare(table, "parent_id", GE, "country1"),
+                orderBy(table, "population", DESC), "city_name", "population"), 4));
+    }
+
+    @Test
+    public void shouldCompareTimestampColumnsWithDateLiterals() throws Exception {
+        seedEvents(firestore, 20);
+        NamedTable events = events();
+        NamedTable replicated = replicate(events(REPLICATED, "true"), firestore.collection("events").get().get());
+        assertSameRows(events, replicated, table -> select(table, compare(table, "happened", GE, hour(12).toSqlTimestamp()), null, "id"));
+        assertSameRows(events, replicated, table -> select(table, compare(table, "happened", EQ, hour(3).toSqlTimestamp()), null, "id"));
+        assertSameRows(events, replicated, table -> limited(select(table, compare(table, "happened", LT, hour(15).toSqlTimestamp()),
+                orderBy(table, "happened", DESC), "event_name", "happened"), 4));
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotsAfterClose() throws Exception {
+        CollectionReplica replica = new CollectionReplica(fields(cities()));
+        replica.close();
+        replica.onEvent(firestore.collectionGroup("cities").get().get(), null);
+        assertNull(replica.getColumns());
+        assertFalse(replica.isListening());
+    }
+
+    /**
+     * Compares the rows of a command without ORDER BY regardless of their order, and the rows of an
+     * ordered command in their order.
+     */
+    private void assertSameRows(NamedTable table, NamedTable replicated, Function<NamedTable, Select> command) throws Exception {
+        Select expected = command.apply(table);
+        List<List<?>> rows = query(executionFactory, connection, expected);
+        List<List<?>> replicaRows = query(executionFactory, connection, command.apply(replicated));
+        assertFalse(rows.isEmpty());
+        if (expected.getOrderBy() == null) {
+            rows.sort(Comparator.comparing(Object::toString));
+            replicaRows.sort(Comparator.comparing(Object::toString));
+        }
+        assertEquals(rows, replicaRows);
+    }
+
+    private NamedTable replicate(NamedTable table, QuerySnapshot snapshot) {
+        CollectionReplica replica = new CollectionReplica(fields(table));
+        replica.onEvent(snapshot, null);
+        executionFactory.getReplicas().put(table.getMetadataObject().getFullName(), replica);
+        return table;
+    }
+
+    private static String[] fields(NamedTable table) {
+        return table.getMetadataObject().getColumns().stream().map(Column::getNameInSource).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,66 @@
+package com.teiid.firestore.translator;
+
+import com.google.cloud.firestore.Firestore;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.translator.common.QueryResultCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.NamedTable;
+import org.teiid.language.SetClause;
+import org.teiid.language.Update;
+
+import java.util.List;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+import static com.teiid.firestore.translator.common.TranslatorUtils.CACHE_TTL;
+import static org.junit.Assert.assertEquals;
+import static org.teiid.language.Comparison.Operator.EQ;
+
+public class FirestoreResultCacheTest {
+    private FirestoreExecutionFactory executionFactory;
+    private CountingDocumentStore store;
+    private FirestoreConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory(executionFactory -> executionFactory.setResultCacheTotalRows(500));
+        store = new CountingDocumentStore();
+        Firestore firestore = firestore(store);
+        seedCities(firestore, 2, 300, 1);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResultsBeyondTotalRows() throws Exception {
+        NamedTable cities = cities(CACHE_TTL, "60000");
+        assertEquals(300, query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country0"), null, "id")).size());
+        assertEquals(300, query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country1"), null, "id")).size());
+        QueryResultCache cache = executionFactory.getResultCache();
+        assertEquals(1, cache.size());
+        assertEquals(300, cache.getRows());
+        assertEquals(1, cache.getEvictions());
+        int queries = store.queries.get();
+        assertEquals(300, query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country1"), null, "id")).size());
+        assertEquals(queries, store.queries.get());
+    }
+
+    @Test
+    public void shouldInvalidateOnceWritesComplete() throws Exception {
+        NamedTable cities = cities(CACHE_TTL, "60000");
+        assertEquals(300, query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country0"), null, "id")).size());
+        Update update = new Update(cities, List.of(new SetClause(column(cities, "city_name"), literal("Renamed"))),
+                compare(cities, "parent_id", EQ, "country0"));
+        assertEquals(300, update(executionFactory, connection, update));
+        QueryResultCache cache = executionFactory.getResultCache();
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.getRows());
+        List<List<?>> rows = query(executionFactory, connection, select(cities, compare(cities, "parent_id", EQ, "country0"), null, "city_name"));
+        rows.forEach(row -> assertEquals("Renamed", row.get(0)));
+    }
+}
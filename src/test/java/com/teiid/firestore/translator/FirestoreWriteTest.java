@@ -0,0 +1,204 @@
+package com.teiid.firestore.translator;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.cloud.firestore.Firestore;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.CommitResponse;
+import com.teiid.firestore.connection.FirestoreConnection;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Condition;
+import org.teiid.language.Delete;
+import org.teiid.language.NamedTable;
+import org.teiid.language.SetClause;
+import org.teiid.language.Update;
+import org.teiid.translator.TranslatorException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.teiid.firestore.translator.OfflineFixtures.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.teiid.language.Comparison.Operator.EQ;
+import static org.teiid.language.Comparison.Operator.GE;
+import static org.teiid.language.Comparison.Operator.LT;
+
+public class FirestoreWriteTest {
+    private FirestoreExecutionFactory executionFactory;
+    private ThrottlingDocumentStore store;
+    private FirestoreConnection connection;
+
+    /**
+     * Rejects the given number of commits with RESOURCE_EXHAUSTED, as Firestore does when writes exceed
+     * the rate a collection sustains.
+     */
+    static class ThrottlingDocumentStore extends CountingDocumentStore {
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger throttled = new AtomicInteger();
+
+        @Override
+        public CommitResponse commit(CommitRequest request) {
+            commits.incrementAndGet();
+            if (throttled.getAndDecrement() > 0) {
+                throw ApiExceptionFactory.createException(new IllegalStateException("Too much contention"),
+                        GrpcStatusCode.of(Status.Code.RESOURCE_EXHAUSTED), true);
+            }
+            return super.commit(request);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executionFactory = executionFactory();
+        store = new ThrottlingDocumentStore();
+        Firestore firestore = firestore(store);
+        seedCities(firestore, 3, 300, 5);
+        connection = connection(firestore);
+    }
+
+    @After
+    public void tearDown() {
+        executionFactory.stop();
+    }
+
+    @Test
+    public void shouldDeleteRangeMatchesSpanningSeveralPages() throws Exception {
+        NamedTable cities = cities();
+        int deleted = update(executionFactory, connection, new Delete(cities, compare(cities, "population", LT, 1000L)));
+        assertEquals(600, deleted);
+        assertEquals(0, query(executionFactory, connection, select(cities, compare(cities, "population", LT, 1000L), null, "id")).size());
+        assertEquals(300, query(executionFactory, connection, select(cities, compare(cities, "population", GE, 1000L), null, "id")).size());
+    }
+
+    @Test
+    public void shouldUpdateOnlyExistingKeyedDocuments() throws Exception {
+        executionFactory.setKeyedUpdatePrecondition(true);
+        NamedTable cities = cities();
+        Condition keys = and(compare(cities, "parent_id", EQ, "country0"), in(cities, "id", "city1", "missing"));
+        Update update = new Update(cities, List.of(new SetClause(column(cities, "city_name"), literal("Renamed"))), keys);
+        assertEquals(1, update(executionFactory, connection, update));
+        List<List<?>> rows = query(executionFactory, connection, select(cities, keys, null, "id", "city_name"));
+        assertEquals(List.of(List.of("city1", "Renamed")), rows);
+    }
+
+    @Test
+    public void shouldCountOnlyExistingKeyedDocumentsDeleted() throws Exception {
+        executionFactory.setKeyedUpdatePrecondition(true);
+        NamedTable cities = cities();
+        Condition keys = and(compare(cities, "parent_id", EQ, "country0"), in(cities, "id", "city1", "city2", "missing"));
+        assertEquals(2, update(executionFactory, connection, new Delete(cities, keys)));
+        assertEquals(0, query(executionFactory, connection, select(cities, keys, null, "id")).size());
+        assertEquals(3 * 300 - 2, query(executionFactory, connection, select(cities, null, null, "id")).size());
+    }
+
+    @Test
+    public void shouldFailBlindKeyedUpdateOfMissingDocumentWithoutCreatingIt() throws Exception {
+        NamedTable cities = cities();
+        Condition keys = and(compare(cities, "parent_id", EQ, "country0"), in(cities, "id", "city1", "missing"));
+        Update update = new Update(cities, List.of(new SetClause(column(cities, "city_name"), literal("Renamed"))), keys);
+        try {
+            update(executionFactory, connection, update);
+            fail("An update of a missing document must fail");
+        } catch (TranslatorException e) {
+            // the batch holding the missing key is rejected as a whole
+        }
+        assertEquals(0, store.batchGets.get());
+        List<List<?>> rows = query(executionFactory, connection, select(cities, keys, null, "id", "city_name"));
+        assertEquals(List.of(List.of("city1", "City 1")), rows);
+    }
+
+    @Test
+    public void shouldDeleteKeyedDocumentsWithoutReadingThem() throws Exception {
+        NamedTable cities = cities();
+        int queries = store.queries.get();
+        Condition keys = and(compare(cities, "parent_id", EQ, "country0"), in(cities, "id", "city1", "city2", "missing"));
+        assertEquals(3, update(executionFactory, connection, new Delete(cities, keys)));
+        assertEquals(0, store.batchGets.get());
+        assertEquals(queries, store.queries.get());
+        assertEquals(3 * 300 - 2, query(executionFactory, connection, select(cities, null, null, "id")).size());
+    }
+
+    @Test
+    public void shouldRetryThrottledBatches() throws Exception {
+        executionFactory.setWriteBatchSize(200);
+        store.commits.set(0);
+        store.throttled.set(2);
+        NamedTable cities = cities();
+        int deleted = update(executionFactory, connection, new Delete(cities, compare(cities, "population", LT, 1000L)));
+        assertEquals(600, deleted);
+        assertEquals(3 + 2, store.commits.get());
+        assertEquals(0, query(executionFactory, connection, select(cities, compare(cities, "population", LT, 1000L), null, "id")).size());
+    }
+
+    @Test
+    public void shouldNestColumnsSharingAPrefix() throws Exception {
+        NamedTable places = places();
+        InsertTemplate template = new InsertTemplate(connection, places, columns(places, "id", "place_name", "city", "lat", "lng"));
+        Map<String, Object> fields = template.fields(List.of("place1", "Harbour", "Oslo", 59.9, 10.7));
+        assertEquals(map("name", "Harbour", "address", map("city", "Oslo", "geo", map("lat", 59.9, "lng", 10.7))), fields);
+        assertEquals("place1", template.reference(List.of("place1", "Harbour", "Oslo", 59.9, 10.7)).getId());
+    }
+
+    @Test
+    public void shouldRejectColumnsNestedInAnotherColumn() throws Exception {
+        NamedTable places = places();
+        try {
+            new InsertTemplate(connection, places, columns(places, "id", "geo", "lat"));
+            fail("address.geo and address.geo.lat can't both be written");
+        } catch (TranslatorException e) {
+            // Firestore rejects the write as well
+        }
+        try {
+            new InsertTemplate(connection, places, columns(places, "lat", "geo"));
+            fail("address.geo.lat and address.geo can't both be written");
+        } catch (TranslatorException e) {
+            // whichever column comes first
+        }
+    }
+
+    @Test
+    public void shouldReuseTemplateAcrossRowsWithNulls() throws Exception {
+        NamedTable places = places();
+        InsertTemplate template = new InsertTemplate(connection, places, columns(places, "id", "place_name", "city", "lat", "lng"));
+        Map<String, Object> first = template.fields(Arrays.asList("place1", "Harbour", "Oslo", 59.9, 10.7));
+        Map<String, Object> second = template.fields(Arrays.asList(null, null, null, null, 10.8));
+        Map<String, Object> third = template.fields(Arrays.asList("place3", "Fjord", "Bergen", null, null));
+        assertEquals(map("name", "Harbour", "address", map("city", "Oslo", "geo", map("lat", 59.9, "lng", 10.7))), first);
+        assertEquals(map("name", null, "address", map("city", null, "geo", map("lat", null, "lng", 10.8))), second);
+        assertEquals(map("name", "Fjord", "address", map("city", "Bergen", "geo", map("lat", null, "lng", null))), third);
+        assertEquals("place3", template.reference(Arrays.asList("place3", "Fjord", "Bergen", null, null)).getId());
+        assertEquals(20, template.reference(Arrays.asList(null, null, null, null, 10.8)).getId().length());
+    }
+
+    private static NamedTable places() {
+        return table("PlacesT", "places", new String[][]{
+                        {"id", "__name__"}, {"place_name", "name"}, {"city", "address.city"},
+                        {"geo", "address.geo"}, {"lat", "address.geo.lat"}, {"lng", "address.geo.lng"}},
+                new Class<?>[]{String.class, String.class, String.class, Object.class, Double.class, Double.class});
+    }
+
+    private static List<ColumnReference> columns(NamedTable table, String... names) {
+        return Arrays.stream(names).map(name -> column(table, name)).collect(Collectors.toList());
+    }
+
+    /**
+     * @param keysAndValues keys followed by their values, which may be null
+     */
+    private static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,287 @@
+package com.teiid.firestore.translator;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firestore.v1.BatchGetDocumentsRequest;
+import com.google.firestore.v1.BatchGetDocumentsResponse;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.RunQueryResponse;
+import com.teiid.firestore.connection.FirestoreConnection;
+import com.teiid.firestore.connection.memory.InMemoryDocumentStore;
+import com.teiid.firestore.connection.memory.InMemoryFirestore;
+import org.teiid.language.*;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.Table;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.UpdateExecution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Metadata shaped like the CountriesT and CitiesT tables of teiid.ddl, and helpers running commands
+ * through the translator against the in-memory Firestore, so no GCP project is needed. The public
+ * ones are shared with the jmh benchmarks, which the jmh profile compiles with the tests.
+ */
+public class OfflineFixtures {
+    public static final String[][] COUNTRY_COLUMNS = {
+            {"id", "__name__"},
+            {"irreligious", "Religion.No religion"},
+            {"president_name", "power.president.name"},
+            {"right_side_driving", "right-side-driving"},
+            {"country_capital", "capital"},
+            {"country_languages", "languages"},
+            {"country_area", "area"},
+            {"country_name", "name"}
+    };
+    public static final Class<?>[] COUNTRY_TYPES = {
+            String.class, Double.class, String.class, Boolean.class, String.class, String[].class, Double.class, String.class
+    };
+    public static final String[][] CITY_COLUMNS = {
+            {"id", "__name__"},
+            {"parent_id", "countries__parent_name__"},
+            {"city_name", "name"},
+            {"population", "population"}
+    };
+    public static final Class<?>[] CITY_TYPES = {String.class, String.class, String.class, Long.class};
+    static final String[][] EVENT_COLUMNS = {
+            {"id", "__name__"},
+            {"event_name", "name"},
+            {"happened", "happened"}
+    };
+    static final Class<?>[] EVENT_TYPES = {String.class, String.class, java.sql.Timestamp.class};
+
+    private OfflineFixtures() {
+    }
+
+    /**
+     * Counts the queries run, the documents they return and the batched gets.
+     */
+    static class CountingDocumentStore extends InMemoryDocumentStore {
+        final AtomicInteger queries = new AtomicInteger();
+        final AtomicInteger documentsReturned = new AtomicInteger();
+        final AtomicInteger batchGets = new AtomicInteger();
+
+        @Override
+        public List<BatchGetDocumentsResponse> batchGet(BatchGetDocumentsRequest request) {
+            batchGets.incrementAndGet();
+            return super.batchGet(request);
+        }
+
+        @Override
+        public List<RunQueryResponse> runQuery(RunQueryRequest request) {
+            List<RunQueryResponse> responses = super.runQuery(request);
+            queries.incrementAndGet();
+            documentsReturned.addAndGet((int) responses.stream().filter(RunQueryResponse::hasDocument).count());
+            return responses;
+        }
+    }
+
+    public static FirestoreExecutionFactory executionFactory() throws TranslatorException {
+        return executionFactory(executionFactory -> {
+        });
+    }
+
+    /**
+     * @param properties sets the translator properties before the factory is started
+     */
+    public static FirestoreExecutionFactory executionFactory(Consumer<FirestoreExecutionFactory> properties) throws TranslatorException {
+        FirestoreExecutionFactory executionFactory = new FirestoreExecutionFactory();
+        executionFactory.setWriteRampUpRate(0);
+        properties.accept(executionFactory);
+        executionFactory.start();
+        return executionFactory;
+    }
+
+    public static Firestore firestore(InMemoryDocumentStore store) {
+        return firestore(store, 0);
+    }
+
+    /**
+     * @param latencyMillis delay of every call, so that results are never available right away
+     */
+    public static Firestore firestore(InMemoryDocumentStore store, long latencyMillis) {
+        return new InMemoryFirestore(store, latencyMillis, 0, 0).create();
+    }
+
+    public static FirestoreConnection connection(Firestore firestore) {
+        return new FirestoreConnection() {
+            @Override
+            public CollectionReference collection(String collectionName) {
+                return firestore.collection(collectionName);
+            }
+
+            @Override
+            public Query collectionGroup(String collectionName) {
+                return firestore.collectionGroup(collectionName);
+            }
+
+            @Override
+            public WriteBatch batch() {
+                return firestore.batch();
+            }
+
+            @Override
+            public ApiFuture<List<DocumentSnapshot>> getAll(DocumentReference[] references, FieldMask fieldMask) {
+                return firestore.getAll(references, fieldMask);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Stores {@code citiesPerCountry} cities named {@code city<j>} with a population of {@code j * populationStep}
+     * under each of the countries {@code country0} to {@code country<countries - 1>}.
+     */
+    public static void seedCities(Firestore firestore, int countries, int citiesPerCountry, long populationStep) throws Exception {
+        WriteBatch batch = firestore.batch();
+        int operations = 0;
+        for (int i = 0; i < countries; i++) {
+            DocumentReference country = firestore.collection("countries").document("country" + i);
+            batch.set(country, Map.of("name", "Country " + i, "area", 1000.0 * i));
+            operations++;
+            for (int j = 0; j < citiesPerCountry; j++) {
+                batch.set(country.collection("cities").document("city" + j), Map.of("name", "City " + j, "population", j * populationStep));
+                if (++operations == 500) {
+                    batch.commit().get();
+                    batch = firestore.batch();
+                    operations = 0;
+                }
+            }
+        }
+        if (operations > 0) batch.commit().get();
+    }
+
+    /**
+     * Stores the events {@code event0} to {@code event<count - 1>}, each happening at {@link #hour(int)} of its number.
+     */
+    static void seedEvents(Firestore firestore, int count) throws Exception {
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < count; i++) {
+            batch.set(firestore.collection("events").document("event" + i), Map.of("name", "Event " + i, "happened", hour(i)));
+        }
+        batch.commit().get();
+    }
+
+    static Timestamp hour(int i) {
+        return Timestamp.ofTimeSecondsAndNanos(1_600_000_000L + i * 3600L, 0);
+    }
+
+    public static NamedTable table(String name, String nameInSource, String[][] columns, Class<?>[] types, String... options) {
+        Table table = new Table();
+        table.setName(name);
+        table.setNameInSource(nameInSource);
+        for (int i = 0; i < columns.length; i++) {
+            Column column = new Column();
+            column.setName(columns[i][0]);
+            column.setNameInSource(columns[i][1]);
+            column.setJavaType(types[i]);
+            column.setParent(table);
+            table.addColumn(column);
+        }
+        for (int i = 0; i + 1 < options.length; i += 2) {
+            table.setProperty(options[i], options[i + 1]);
+        }
+        return new NamedTable(name, null, table);
+    }
+
+    /**
+     * @param options table option names followed by their values
+     */
+    public static NamedTable countries(String... options) {
+        return table("CountriesT", "countries", COUNTRY_COLUMNS, COUNTRY_TYPES, options);
+    }
+
+    /**
+     * @param options table option names followed by their values
+     */
+    public static NamedTable cities(String... options) {
+        return table("CitiesT", "cities", CITY_COLUMNS, CITY_TYPES, options);
+    }
+
+    /**
+     * @param options table option names followed by their values
+     */
+    static NamedTable events(String... options) {
+        return table("EventsT", "events", EVENT_COLUMNS, EVENT_TYPES, options);
+    }
+
+    public static ColumnReference column(NamedTable table, String name) {
+        Column column = table.getMetadataObject().getColumns().stream()
+                .filter(c -> c.getName().equals(name))
+                .findFirst()
+                .orElseThrow(IllegalArgumentException::new);
+        return new ColumnReference(table, name, column, column.getJavaType());
+    }
+
+    public static Literal literal(Object value) {
+        return new Literal(value, value.getClass());
+    }
+
+    static Comparison compare(NamedTable table, String column, Comparison.Operator operator, Object value) {
+        return new Comparison(column(table, column), literal(value), operator);
+    }
+
+    static In in(NamedTable table, String column, Object... values) {
+        return new In(column(table, column), Arrays.stream(values).map(OfflineFixtures::literal).collect(Collectors.toList()), false);
+    }
+
+    static Condition and(Condition left, Condition right) {
+        return new AndOr(left, right, AndOr.Operator.AND);
+    }
+
+    static Condition or(Condition left, Condition right) {
+        return new AndOr(left, right, AndOr.Operator.OR);
+    }
+
+    static OrderBy orderBy(NamedTable table, String column, SortSpecification.Ordering ordering) {
+        return new OrderBy(new ArrayList<>(List.of(new SortSpecification(ordering, column(table, column)))));
+    }
+
+    static Select select(NamedTable table, Condition where, OrderBy orderBy, String... columns) {
+        List<DerivedColumn> derivedColumns = Arrays.stream(columns)
+                .map(column -> new DerivedColumn(null, column(table, column)))
+                .collect(Collectors.toList());
+        return new Select(derivedColumns, false, List.of(table), where, null, null, orderBy);
+    }
+
+    static Select limited(Select select, int limit) {
+        select.setLimit(new Limit(0, limit));
+        return select;
+    }
+
+    static List<List<?>> query(FirestoreExecutionFactory executionFactory, FirestoreConnection connection, Select select) throws TranslatorException {
+        ResultSetExecution execution = executionFactory.createResultSetExecution(select, null, null, connection);
+        execution.execute();
+        List<List<?>> rows = new ArrayList<>();
+        for (List<?> row = execution.next(); row != null; row = execution.next()) {
+            rows.add(row);
+        }
+        execution.close();
+        return rows;
+    }
+
+    static int update(FirestoreExecutionFactory executionFactory, FirestoreConnection connection, Command command) throws TranslatorException {
+        UpdateExecution execution = executionFactory.createUpdateExecution(command, null, null, connection);
+        execution.execute();
+        int[] updateCounts = execution.getUpdateCounts();
+        execution.close();
+        return updateCounts[0];
+    }
+}